@@ -16,13 +16,34 @@
 
 package com.hivemq.plugins.metrics.graphite.callbacks;
 
-import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.Clock;
 import com.codahale.metrics.MetricRegistry;
-import com.codahale.metrics.graphite.Graphite;
-import com.codahale.metrics.graphite.GraphiteReporter;
-import com.codahale.metrics.graphite.GraphiteSender;
-import com.codahale.metrics.graphite.PickledGraphite;
+import com.hivemq.plugins.metrics.graphite.history.MetricHistory;
+import com.hivemq.plugins.metrics.graphite.http.SnapshotHttpEndpoint;
+import com.hivemq.plugins.metrics.graphite.reporter.CounterRates;
+import com.hivemq.plugins.metrics.graphite.reporter.GaugeEvaluator;
+import com.hivemq.plugins.metrics.graphite.reporter.GaugeSampler;
+import com.hivemq.plugins.metrics.graphite.reporter.GraphiteMetricsReporter;
+import com.hivemq.plugins.metrics.graphite.reporter.MetricPriorities;
+import com.hivemq.plugins.metrics.graphite.reporter.ReporterThreads;
+import com.hivemq.plugins.metrics.graphite.reporter.ReportingEvents;
+import com.hivemq.plugins.metrics.graphite.sender.AddressResolver;
+import com.hivemq.plugins.metrics.graphite.sender.MetricSink;
+import com.hivemq.plugins.metrics.graphite.sender.MetricsFanOut;
+import com.hivemq.plugins.metrics.graphite.sender.PayloadConsumer;
+import com.hivemq.plugins.metrics.graphite.sender.PlainSeriesNames;
+import com.hivemq.plugins.metrics.graphite.sender.SeriesNames;
+import com.hivemq.plugins.metrics.graphite.sender.SnapshotEncoder;
+import com.hivemq.plugins.metrics.graphite.sender.TaggedSeriesNames;
+import com.hivemq.plugins.metrics.graphite.sender.TcpTransport;
+import com.hivemq.plugins.metrics.graphite.sender.TlsContexts;
+import com.hivemq.plugins.metrics.graphite.sender.TlsTransport;
+import com.hivemq.plugins.metrics.graphite.sender.TokenBucket;
+import com.hivemq.plugins.metrics.graphite.sender.Transport;
+import com.hivemq.plugins.metrics.graphite.sender.UdpTransport;
+import com.hivemq.plugins.metrics.graphite.sender.WireFormat;
 import com.hivemq.plugins.metrics.graphite.utils.GraphiteConfiguration;
+import com.hivemq.plugins.metrics.graphite.utils.GraphiteSettings;
 import com.hivemq.spi.callback.CallbackPriority;
 import com.hivemq.spi.callback.events.broker.OnBrokerStart;
 import com.hivemq.spi.callback.events.broker.OnBrokerStop;
@@ -31,31 +52,82 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @author Christoph Schaebel
  */
 public class GraphiteReporting implements OnBrokerStart, OnBrokerStop {
 
+    private static final String THROTTLED_METRIC = "com.hivemq.plugins.graphite.shaper.throttled";
+
     Logger log = LoggerFactory.getLogger(GraphiteReporting.class);
 
     private final MetricRegistry metricRegistry;
     private final GraphiteConfiguration graphiteConfiguration;
-    private GraphiteSender graphite;
-    private GraphiteReporter reporter;
+    private final TopicThroughput topicThroughput;
+    private final ExecutorService startupExecutor = ReporterThreads.newStartupExecutor("graphite-startup");
+    private final AtomicBoolean restartPending = new AtomicBoolean();
+    //the configuration the running reporting was set up with, only used on the startup thread
+    private GraphiteSettings configuration;
+    private AddressResolver resolver;
+    private MetricsFanOut fanOut;
+    private GaugeEvaluator gaugeEvaluator;
+    private GaugeSampler sampler;
+    private GraphiteMetricsReporter reporter;
+    private SnapshotHttpEndpoint httpEndpoint;
+    //kept across restarts, as long as its configuration does not change
+    private MetricHistory history;
 
     @Inject
     public GraphiteReporting(final MetricRegistry metricRegistry,
-                             final GraphiteConfiguration graphiteConfiguration) {
+                             final GraphiteConfiguration graphiteConfiguration,
+                             final TopicThroughput topicThroughput) {
         this.metricRegistry = metricRegistry;
         this.graphiteConfiguration = graphiteConfiguration;
+        this.topicThroughput = topicThroughput;
     }
 
+    /**
+     * Checks the configuration and loads the TLS stores, an error in either stops the broker. Only the network
+     * and DNS setup runs in the background, so the broker start does not wait for the endpoints.
+     */
     @Override
     public void onBrokerStart() throws BrokerUnableToStartException {
 
-        startGraphiteReporting();
+        final GraphiteSettings settings;
+        try {
+            settings = graphiteConfiguration.snapshot();
+        } catch (IllegalArgumentException e) {
+            log.error("The configuration of the Graphite Plugin contains errors, HiveMQ is not started");
+            throw new BrokerUnableToStartException(e.getMessage(), e);
+        }
+        final SSLContext sslContext;
+        try {
+            sslContext = setupTlsContext(settings);
+        } catch (IllegalStateException e) {
+            log.error("Unable to load the TLS key or trust store of the Graphite Plugin, HiveMQ is not started", e);
+            throw new BrokerUnableToStartException(e.getMessage(), e);
+        }
+
+        runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                startGraphiteReporting(settings, sslContext);
+            }
+        });
 
         addRestartListener();
     }
@@ -63,9 +135,21 @@ public class GraphiteReporting implements OnBrokerStart, OnBrokerStop {
     @Override
     public void onBrokerStop()
     {
-       //if reporter was not initiated yet
-        if(reporter != null){
-            reporter.stop();
+        runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                stopGraphiteReporting();
+                closeHistory();
+            }
+        });
+        startupExecutor.shutdown();
+        try {
+            if (!startupExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                log.warn("Graphite reporting did not stop in time");
+                startupExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -75,52 +159,334 @@ public class GraphiteReporting implements OnBrokerStart, OnBrokerStop {
     }
 
 
+    /**
+     * Restarts the reporting with the new configuration after a reload. Restarts which are requested while
+     * another one is still waiting to run are merged into it, it reads the configuration when it runs.
+     */
     private void addRestartListener() {
 
         graphiteConfiguration.setRestartListener(new GraphiteConfiguration.RestartListener() {
             @Override
             public void restart() {
-                reporter.stop();
+                if (!restartPending.compareAndSet(false, true)) {
+                    return;
+                }
+                runInBackground(new Runnable() {
+                    @Override
+                    public void run() {
+                        restartPending.set(false);
+                        stopGraphiteReporting();
 
-                startGraphiteReporting();
+                        final GraphiteSettings settings = graphiteConfiguration.snapshot();
+                        final SSLContext sslContext;
+                        try {
+                            sslContext = setupTlsContext(settings);
+                        } catch (IllegalStateException e) {
+                            log.error("Unable to load the TLS key or trust store, the Graphite reporting is stopped until the configuration changes", e);
+                            return;
+                        }
+                        startGraphiteReporting(settings, sslContext);
+                    }
+                });
             }
         });
 
     }
 
-    private void startGraphiteReporting() {
-        setupGraphiteSender();
-        setupGraphiteReporter();
+    /**
+     * Runs the setup and teardown one after the other on the startup thread, after the broker stopped they are skipped.
+     */
+    private void runInBackground(final Runnable task) {
+        try {
+            startupExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        log.error("Unable to set up Graphite reporting", e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.debug("Graphite reporting is already stopped");
+        }
+    }
+
+    /**
+     * Sets up the reporting with the given configuration. If a step fails, everything which was already set up
+     * is closed again and the reporting stays stopped until the next configuration change.
+     *
+     * @param sslContext the context shared by all TLS endpoints, <code>null</code> if none uses TLS
+     */
+    private void startGraphiteReporting(final GraphiteSettings settings, final SSLContext sslContext) {
+        configuration = settings;
+        String server = "without a host";
+        String step = "the Graphite server";
+        try {
+            server = configuration.getHost() + ":" + configuration.getPort();
+            step = "the DNS resolver";
+            resolver = new AddressResolver(TimeUnit.SECONDS.toMillis(configuration.getDnsCacheTtl()));
+            step = "the senders";
+            setupGraphiteSender(sslContext);
+            step = "the reporter";
+            setupGraphiteReporter();
+            step = "the topic counters";
+            topicThroughput.start(configuration.getTopicCounters());
 
-        reporter.start(graphiteConfiguration.getReportingInterval(), TimeUnit.SECONDS);
+            step = "the reporting schedule";
+            reporter.start(configuration.getReportingInterval(), TimeUnit.SECONDS);
+        } catch (RuntimeException e) {
+            log.error("Unable to set up {} of the Graphite reporting to {}, the reporting is stopped until the configuration changes",
+                    step, server, e);
+            stopGraphiteReporting();
+        }
+    }
+
+    private void stopGraphiteReporting() {
+        topicThroughput.stop();
+        if (reporter != null) {
+            //closes the fan-out, the gauge evaluator and the sampler
+            reporter.stop();
+        } else {
+            //the setup failed before the reporter was created
+            if (fanOut != null) {
+                fanOut.close();
+            }
+            if (gaugeEvaluator != null) {
+                gaugeEvaluator.close();
+            }
+            if (sampler != null) {
+                sampler.close();
+            }
+        }
+        reporter = null;
+        fanOut = null;
+        gaugeEvaluator = null;
+        sampler = null;
+        stopHttpEndpoint();
+        if (resolver != null) {
+            resolver.close();
+            resolver = null;
+        }
     }
 
     private void setupGraphiteReporter() {
-        String prefix = graphiteConfiguration.getPrefix();
+        String prefix = configuration.getPrefix();
         if (prefix == null) {
             prefix = "";
         }
 
-        reporter = GraphiteReporter.forRegistry(metricRegistry)
-                .prefixedWith(prefix)
-                .convertRatesTo(TimeUnit.SECONDS)
-                .convertDurationsTo(TimeUnit.MILLISECONDS)
-                .filter(MetricFilter.ALL)
-                .build(graphite);
+        if (ReporterThreads.isVirtual()) {
+            log.debug("Graphite reporting runs on virtual threads");
+        }
+        if (ReportingEvents.isAvailable()) {
+            log.debug("Graphite reporting records JFR events");
+        }
+
+        gaugeEvaluator = new GaugeEvaluator(metricRegistry,
+                configuration.getGaugeTimeout(),
+                TimeUnit.SECONDS.toMillis(configuration.getGaugeMaxStaleness()),
+                configuration.getGaugeMaxOverruns(),
+                TimeUnit.SECONDS.toMillis(configuration.getSlowGaugeInterval()),
+                TimeUnit.MILLISECONDS);
+
+        sampler = new GaugeSampler(configuration.getSampledGauges(),
+                configuration.getGaugeSampleInterval(),
+                TimeUnit.SECONDS.toMillis(configuration.getReportingInterval()),
+                TimeUnit.MILLISECONDS);
+
+        reporter = new GraphiteMetricsReporter(metricRegistry, fanOut, gaugeEvaluator, Clock.defaultClock(), prefix,
+                configuration.getReportingPartitions(),
+                new MetricPriorities(configuration.getHighPriorityMetrics(),
+                        configuration.getLowPriorityMetrics()),
+                sampler,
+                new CounterRates(configuration.getRateCounters(), configuration.isRateCounterDeltas(),
+                        configuration.isRateCountersMonotonic()));
     }
 
-    private void setupGraphiteSender() {
+    private void setupGraphiteSender(final SSLContext sslContext) {
+
+        final TokenBucket bucket = setupTokenBucket();
+
+        final List<PayloadConsumer> consumers = new ArrayList<>();
+        try {
+            setupConsumers(consumers, bucket, sslContext);
+        } catch (RuntimeException e) {
+            //closes the sinks which were already created
+            new MetricsFanOut(consumers).close();
+            throw e;
+        }
+        fanOut = new MetricsFanOut(consumers);
+    }
 
-        final String host = graphiteConfiguration.getHost();
-        final int port = graphiteConfiguration.getPort();
+    private void setupConsumers(final List<PayloadConsumer> consumers, final TokenBucket bucket,
+                                final SSLContext sslContext) {
 
-        if (graphiteConfiguration.isBatchMode()) {
-            log.info("Creating batched Graphite sender for server {}:{}", host, port);
-            graphite = new PickledGraphite(host, port, graphiteConfiguration.getBatchSize());
+        final String host = configuration.getHost();
+        final int port = configuration.getPort();
+        final int queueSize = configuration.getSinkQueueSize();
+        final long deadline = TimeUnit.SECONDS.toMillis(configuration.getReportingInterval());
+        final SeriesNames seriesNames = setupSeriesNames();
+
+        final WireFormat format;
+        if (configuration.isBatchMode()) {
+            format = configuration.getBatchFormat();
+            log.info("Creating batched {} Graphite sender for server {}:{}", format.getName(), host, port);
         } else {
             log.info("Creating non-batched Graphite sender for server {}:{}", host, port);
-            graphite = new Graphite(host, port);
+            format = WireFormat.PLAINTEXT;
+        }
+        final SnapshotEncoder encoder = format.newEncoder(configuration.getBatchSize(), seriesNames);
+        //the history is replayed in plaintext over TCP, so only such endpoints can be replay targets
+        final Map<String, InetSocketAddress> replayTargets = new LinkedHashMap<>();
+        resolver.prefetch(host);
+        if (!configuration.isTls()) {
+            if (format == WireFormat.PLAINTEXT) {
+                replayTargets.put("graphite", InetSocketAddress.createUnresolved(host, port));
+            }
+            consumers.add(new MetricSink("graphite", encoder,
+                    new TcpTransport(host, port, bucket, resolver), queueSize, deadline, metricRegistry));
+        } else {
+            consumers.add(new MetricSink("graphite", encoder,
+                    new TlsTransport(host, port, sslContext, bucket, resolver), queueSize, deadline, metricRegistry));
+        }
+
+        for (String sink : configuration.getSinks()) {
+            final String sinkHost = configuration.getSinkHost(sink);
+            final int sinkPort = configuration.getSinkPort(sink);
+            final WireFormat sinkFormat = configuration.getSinkFormat(sink);
+
+            final Transport transport;
+            if (configuration.isSinkTls(sink)) {
+                transport = new TlsTransport(sinkHost, sinkPort, sslContext, bucket, resolver);
+            } else if (configuration.isSinkUdp(sink)) {
+                transport = new UdpTransport(sinkHost, sinkPort, bucket, resolver);
+            } else {
+                transport = new TcpTransport(sinkHost, sinkPort, bucket, resolver);
+                if (sinkFormat == WireFormat.PLAINTEXT) {
+                    replayTargets.put(sink, InetSocketAddress.createUnresolved(sinkHost, sinkPort));
+                }
+            }
+            resolver.prefetch(sinkHost);
+
+            log.info("Creating {} sender {} for server {}", sinkFormat.getName(), sink, transport);
+            consumers.add(new MetricSink(sink, sinkFormat.newEncoder(configuration.getBatchSize(), seriesNames),
+                    transport, queueSize, deadline, metricRegistry));
+        }
+
+        final MetricHistory metricHistory = setupHistory();
+        if (metricHistory != null) {
+            consumers.add(metricHistory);
+        }
+        consumers.addAll(setupHttpEndpoint(seriesNames, metricHistory, replayTargets, bucket));
+    }
+
+    private static boolean usesTls(final GraphiteSettings settings) {
+        if (settings.isTls()) {
+            return true;
+        }
+        for (String sink : settings.getSinks()) {
+            if (settings.isSinkTls(sink)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the context shared by all TLS endpoints, <code>null</code> if none uses TLS
+     * @throws IllegalStateException if the key or trust store can't be loaded, TLS endpoints are never skipped
+     */
+    private static SSLContext setupTlsContext(final GraphiteSettings settings) {
+        if (!usesTls(settings)) {
+            return null;
+        }
+        try {
+            return TlsContexts.create(
+                    settings.getTlsKeyStore(), settings.getTlsKeyStorePassword(),
+                    settings.getTlsTrustStore(), settings.getTlsTrustStorePassword());
+        } catch (GeneralSecurityException | IOException e) {
+            throw new IllegalStateException("Unable to load the TLS key or trust store", e);
+        }
+    }
+
+    private TokenBucket setupTokenBucket() {
+        final int bandwidthLimit = configuration.getBandwidthLimit();
+        if (bandwidthLimit == 0) {
+            metricRegistry.remove(THROTTLED_METRIC);
+            return null;
+        }
+        log.info("Limiting the bandwidth of the Graphite senders to {} bytes per second", bandwidthLimit);
+        return new TokenBucket(bandwidthLimit, configuration.getBandwidthBurst(),
+                metricRegistry.timer(THROTTLED_METRIC));
+    }
+
+    /**
+     * @return the history of the reported datapoints or <code>null</code> if no history is kept
+     */
+    private MetricHistory setupHistory() {
+        final long retention = TimeUnit.HOURS.toSeconds(configuration.getHistoryHours());
+        final long maxBytes = configuration.getHistoryMaxMegabytes() * 1024L * 1024L;
+        if (history != null && (history.getRetentionSeconds() != retention || history.getMaxBytes() != maxBytes)) {
+            closeHistory();
+        }
+        if (retention == 0) {
+            return null;
+        }
+        if (history == null) {
+            log.info("Keeping {} hours of the reported metrics in up to {} bytes",
+                    configuration.getHistoryHours(), maxBytes);
+            history = new MetricHistory(retention, maxBytes, metricRegistry);
+        }
+        return history;
+    }
+
+    private void closeHistory() {
+        if (history != null) {
+            history.close();
+            history = null;
+        }
+    }
+
+    private List<PayloadConsumer> setupHttpEndpoint(final SeriesNames seriesNames, final MetricHistory history,
+                                                    final Map<String, InetSocketAddress> replayTargets,
+                                                    final TokenBucket bucket) {
+        if (!configuration.isHttpEndpoint()) {
+            return Collections.emptyList();
+        }
+
+        final InetSocketAddress address = new InetSocketAddress(
+                configuration.getHttpBindAddress(), configuration.getHttpPort());
+        final SnapshotHttpEndpoint endpoint = history == null
+                ? new SnapshotHttpEndpoint(address, seriesNames)
+                : new SnapshotHttpEndpoint(address, seriesNames, history, setupSeriesNames(), replayTargets,
+                bucket, resolver);
+        try {
+            endpoint.start();
+        } catch (IOException e) {
+            log.error("Unable to start the HTTP endpoint on {}, metrics are only pushed", address, e);
+            return Collections.emptyList();
+        }
+        httpEndpoint = endpoint;
+        return endpoint.getConsumers();
+    }
+
+    private void stopHttpEndpoint() {
+        if (httpEndpoint != null) {
+            httpEndpoint.stop();
+            httpEndpoint = null;
+        }
+    }
+
+    private SeriesNames setupSeriesNames() {
+        if (!configuration.isTaggedSeries()) {
+            return new PlainSeriesNames();
         }
+        final String node = configuration.getTagNode();
+        final String cluster = configuration.getTagCluster();
+        log.info("Sending tagged series with node {} and cluster {}", node, cluster);
+        return new TaggedSeriesNames(node, cluster, configuration.getTagRules());
     }
 
 }
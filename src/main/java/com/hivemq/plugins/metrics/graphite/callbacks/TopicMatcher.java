@@ -0,0 +1,115 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.plugins.metrics.graphite.callbacks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Matches topics against MQTT topic filters with the <code>+</code> and <code>#</code> wildcards.
+ * <p>
+ * The filters are kept as a tree of topic levels, so a topic is matched with one walk over its levels
+ * instead of against every filter. Wildcards don't match topics starting with <code>$</code>.
+ */
+class TopicMatcher<T> {
+
+    private final Node<T> root = new Node<>();
+
+    /**
+     * Adds a filter, must not be called while topics are matched.
+     *
+     * @param value the value returned for topics matching the filter
+     */
+    void add(final String filter, final T value) {
+        Node<T> node = root;
+        for (String level : filter.split("/", -1)) {
+            node = node.child(level);
+        }
+        node.values.add(value);
+    }
+
+    /**
+     * @return the values of all filters matching the topic, in no particular order
+     */
+    List<T> match(final String topic) {
+        final List<T> result = new ArrayList<>();
+        match(root, topic, 0, !topic.startsWith("$"), result);
+        return result;
+    }
+
+    private void match(final Node<T> node, final String topic, final int start, final boolean wildcards,
+                       final List<T> result) {
+        if (wildcards && node.hash != null) {
+            result.addAll(node.hash.values);
+        }
+        int end = topic.indexOf('/', start);
+        if (end < 0) {
+            end = topic.length();
+        }
+        final Node<T> exact = node.children.get(topic.substring(start, end));
+        if (exact != null) {
+            descend(exact, topic, end, result);
+        }
+        if (wildcards && node.plus != null) {
+            descend(node.plus, topic, end, result);
+        }
+    }
+
+    private void descend(final Node<T> child, final String topic, final int end, final List<T> result) {
+        if (end < topic.length()) {
+            match(child, topic, end + 1, true, result);
+            return;
+        }
+        result.addAll(child.values);
+        //a/# also matches a
+        if (child.hash != null) {
+            result.addAll(child.hash.values);
+        }
+    }
+
+    private static class Node<T> {
+
+        private final Map<String, Node<T>> children = new HashMap<>();
+        private final List<T> values = new ArrayList<>();
+        private Node<T> plus;
+        private Node<T> hash;
+
+        private Node<T> child(final String level) {
+            if (level.equals("+")) {
+                if (plus == null) {
+                    plus = new Node<>();
+                }
+                return plus;
+            }
+            if (level.equals("#")) {
+                if (hash == null) {
+                    hash = new Node<>();
+                }
+                return hash;
+            }
+            Node<T> child = children.get(level);
+            if (child == null) {
+                child = new Node<>();
+                children.put(level, child);
+            }
+            return child;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.plugins.metrics.graphite.callbacks;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.hivemq.spi.callback.CallbackPriority;
+import com.hivemq.spi.callback.events.OnPublishReceivedCallback;
+import com.hivemq.spi.message.PUBLISH;
+import com.hivemq.spi.security.ClientData;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Counts the received messages and payload bytes per configured topic filter.
+ * <p>
+ * The counters are registered in the {@link MetricRegistry} as
+ * <code>com.hivemq.plugins.graphite.topic.&lt;name&gt;.messages</code> and <code>.bytes</code>, so they are
+ * reported like all other metrics. The counters of a topic are looked up once via a {@link TopicMatcher}
+ * and cached, afterwards a publish only costs a map lookup and an increment of striped counter cells.
+ * Without configured filters the callback returns immediately.
+ */
+public class TopicThroughput implements OnPublishReceivedCallback {
+
+    static final String METRIC_PREFIX = "com.hivemq.plugins.graphite.topic";
+
+    private static final int MAX_CACHED_TOPICS = 10_000;
+
+    private final MetricRegistry metricRegistry;
+
+    private volatile Counters counters;
+
+    @Inject
+    public TopicThroughput(final MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+    }
+
+    @Override
+    public void onPublishReceived(final PUBLISH publish, final ClientData clientData) {
+        final Counters current = counters;
+        if (current == null) {
+            return;
+        }
+        final byte[] payload = publish.getPayload();
+        for (TopicCounter counter : current.lookup(publish.getTopic())) {
+            counter.messages.inc();
+            if (payload != null) {
+                counter.bytes.inc(payload.length);
+            }
+        }
+    }
+
+    @Override
+    public int priority() {
+        return CallbackPriority.LOW;
+    }
+
+    /**
+     * Registers the counters of the filters and starts counting.
+     *
+     * @param filters the names of the counters and their MQTT topic filters
+     */
+    public synchronized void start(final Map<String, String> filters) {
+        stop();
+        if (filters.isEmpty()) {
+            return;
+        }
+        final TopicMatcher<TopicCounter> matcher = new TopicMatcher<>();
+        final List<TopicCounter> all = new ArrayList<>();
+        for (Map.Entry<String, String> entry : filters.entrySet()) {
+            final TopicCounter counter = new TopicCounter(entry.getKey(),
+                    metricRegistry.counter(MetricRegistry.name(METRIC_PREFIX, entry.getKey(), "messages")),
+                    metricRegistry.counter(MetricRegistry.name(METRIC_PREFIX, entry.getKey(), "bytes")));
+            matcher.add(entry.getValue(), counter);
+            all.add(counter);
+        }
+        counters = new Counters(matcher, all);
+    }
+
+    /**
+     * Stops counting and removes the counters.
+     */
+    public synchronized void stop() {
+        final Counters current = counters;
+        if (current == null) {
+            return;
+        }
+        counters = null;
+        for (TopicCounter counter : current.all) {
+            metricRegistry.remove(MetricRegistry.name(METRIC_PREFIX, counter.name, "messages"));
+            metricRegistry.remove(MetricRegistry.name(METRIC_PREFIX, counter.name, "bytes"));
+        }
+    }
+
+    private static class Counters {
+
+        private final TopicMatcher<TopicCounter> matcher;
+        private final TopicCounter[] all;
+        private final ConcurrentMap<String, TopicCounter[]> cache = new ConcurrentHashMap<>();
+
+        private Counters(final TopicMatcher<TopicCounter> matcher, final List<TopicCounter> all) {
+            this.matcher = matcher;
+            this.all = all.toArray(new TopicCounter[all.size()]);
+        }
+
+        private TopicCounter[] lookup(final String topic) {
+            TopicCounter[] matching = cache.get(topic);
+            if (matching == null) {
+                final List<TopicCounter> matched = matcher.match(topic);
+                matching = matched.toArray(new TopicCounter[matched.size()]);
+                //topics with unique ids would fill the cache, beyond the limit they are matched every time
+                if (cache.size() < MAX_CACHED_TOPICS) {
+                    cache.put(topic, matching);
+                }
+            }
+            return matching;
+        }
+    }
+
+    private static class TopicCounter {
+
+        private final String name;
+        private final Counter messages;
+        private final Counter bytes;
+
+        private TopicCounter(final String name, final Counter messages, final Counter bytes) {
+            this.name = name;
+            this.messages = messages;
+            this.bytes = bytes;
+        }
+    }
+}
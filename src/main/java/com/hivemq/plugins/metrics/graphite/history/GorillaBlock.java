@@ -0,0 +1,251 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.plugins.metrics.graphite.history;
+
+import java.util.Arrays;
+
+/**
+ * The datapoints of one series within a time span, compressed as described in the Gorilla paper.
+ * <p>
+ * Timestamps are stored as the delta of their deltas, which is 0 for a regular reporting interval and costs
+ * a single bit. Values are stored as the XOR with the previous value, which is 0 for an unchanged value and
+ * otherwise only the bits between the leading and trailing zeros. The bits are appended to an array of longs
+ * which grows as needed and is trimmed once the block is closed.
+ * <p>
+ * Not thread safe, the {@link MetricHistory} synchronizes on the series.
+ */
+class GorillaBlock {
+
+    //array header, fields and the object header of the block
+    static final int OVERHEAD_BYTES = 80;
+
+    private final long firstTimestamp;
+
+    private long[] words = new long[2];
+    private int bits;
+    private int count;
+
+    private long lastTimestamp;
+    private long lastDelta;
+    private long lastValue;
+    private int lastLeading = -1;
+    private int lastTrailing;
+
+    GorillaBlock(final long firstTimestamp) {
+        this.firstTimestamp = firstTimestamp;
+        this.lastTimestamp = firstTimestamp;
+    }
+
+    long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * @return the memory used by the block in bytes
+     */
+    int sizeInBytes() {
+        return OVERHEAD_BYTES + words.length * 8;
+    }
+
+    /**
+     * @return the number of bytes the block grew
+     */
+    int append(final long timestamp, final double value) {
+        final int before = words.length;
+        final long valueBits = Double.doubleToRawLongBits(value);
+        if (count == 0) {
+            write(valueBits, 64);
+        } else {
+            appendTimestamp(timestamp);
+            appendValue(valueBits);
+        }
+        lastTimestamp = timestamp;
+        lastValue = valueBits;
+        count++;
+        return (words.length - before) * 8;
+    }
+
+    /**
+     * Releases the unused capacity, no more datapoints may be appended afterwards.
+     *
+     * @return the number of bytes released
+     */
+    int close() {
+        final int used = (bits + 63) >>> 6;
+        final int released = (words.length - used) * 8;
+        words = Arrays.copyOf(words, used);
+        return released;
+    }
+
+    private void appendTimestamp(final long timestamp) {
+        final long delta = timestamp - lastTimestamp;
+        final long deltaOfDelta = delta - lastDelta;
+        lastDelta = delta;
+        if (deltaOfDelta == 0) {
+            write(0, 1);
+        } else if (deltaOfDelta >= -63 && deltaOfDelta <= 64) {
+            write(0b10, 2);
+            write(deltaOfDelta + 63, 7);
+        } else if (deltaOfDelta >= -255 && deltaOfDelta <= 256) {
+            write(0b110, 3);
+            write(deltaOfDelta + 255, 9);
+        } else if (deltaOfDelta >= -2047 && deltaOfDelta <= 2048) {
+            write(0b1110, 4);
+            write(deltaOfDelta + 2047, 12);
+        } else {
+            write(0b1111, 4);
+            write(deltaOfDelta, 32);
+        }
+    }
+
+    private void appendValue(final long valueBits) {
+        final long xor = valueBits ^ lastValue;
+        if (xor == 0) {
+            write(0, 1);
+            return;
+        }
+        final int leading = Math.min(31, Long.numberOfLeadingZeros(xor));
+        final int trailing = Long.numberOfTrailingZeros(xor);
+        if (lastLeading >= 0 && leading >= lastLeading && trailing >= lastTrailing) {
+            //the changed bits fit into the window of the last value
+            write(0b10, 2);
+            write(xor >>> lastTrailing, 64 - lastLeading - lastTrailing);
+        } else {
+            final int meaningful = 64 - leading - trailing;
+            write(0b11, 2);
+            write(leading, 5);
+            write(meaningful - 1, 6);
+            write(xor >>> trailing, meaningful);
+            lastLeading = leading;
+            lastTrailing = trailing;
+        }
+    }
+
+    private void write(final long value, final int length) {
+        if (bits + length > words.length * 64) {
+            words = Arrays.copyOf(words, words.length * 2);
+        }
+        final int index = bits >>> 6;
+        final int free = 64 - (bits & 63);
+        final long masked = length == 64 ? value : value & ((1L << length) - 1);
+        if (length <= free) {
+            words[index] |= masked << (free - length);
+        } else {
+            words[index] |= masked >>> (length - free);
+            words[index + 1] |= masked << (64 - (length - free));
+        }
+        bits += length;
+    }
+
+    /**
+     * @return a reader of the datapoints, which must be used before the next append
+     */
+    Reader reader() {
+        return new Reader();
+    }
+
+    /**
+     * Decodes the datapoints of the block in the order they were appended.
+     */
+    class Reader {
+
+        private int position;
+        private int read;
+
+        private long timestamp = firstTimestamp;
+        private long delta;
+        private long value;
+        private int leading = -1;
+        private int trailing;
+
+        /**
+         * @return <code>false</code> if all datapoints were read
+         */
+        boolean next() {
+            if (read == count) {
+                return false;
+            }
+            if (read == 0) {
+                value = readBits(64);
+            } else {
+                delta += readDeltaOfDelta();
+                timestamp += delta;
+                readValue();
+            }
+            read++;
+            return true;
+        }
+
+        long getTimestamp() {
+            return timestamp;
+        }
+
+        double getValue() {
+            return Double.longBitsToDouble(value);
+        }
+
+        private long readDeltaOfDelta() {
+            if (readBits(1) == 0) {
+                return 0;
+            }
+            if (readBits(1) == 0) {
+                return readBits(7) - 63;
+            }
+            if (readBits(1) == 0) {
+                return readBits(9) - 255;
+            }
+            if (readBits(1) == 0) {
+                return readBits(12) - 2047;
+            }
+            return (int) readBits(32);
+        }
+
+        private void readValue() {
+            if (readBits(1) == 0) {
+                return;
+            }
+            if (readBits(1) == 1) {
+                leading = (int) readBits(5);
+                final int meaningful = (int) readBits(6) + 1;
+                trailing = 64 - leading - meaningful;
+            }
+            value ^= readBits(64 - leading - trailing) << trailing;
+        }
+
+        private long readBits(final int length) {
+            final int index = position >>> 6;
+            final int free = 64 - (position & 63);
+            long result;
+            if (length <= free) {
+                result = words[index] >>> (free - length);
+            } else {
+                result = (words[index] << (length - free)) | (words[index + 1] >>> (64 - (length - free)));
+            }
+            position += length;
+            return length == 64 ? result : result & ((1L << length) - 1);
+        }
+    }
+}
@@ -0,0 +1,374 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.plugins.metrics.graphite.history;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.hivemq.plugins.metrics.graphite.reporter.MetricSnapshot;
+import com.hivemq.plugins.metrics.graphite.sender.EncodeBuffer;
+import com.hivemq.plugins.metrics.graphite.sender.PayloadConsumer;
+import com.hivemq.plugins.metrics.graphite.sender.SeriesNames;
+import com.hivemq.plugins.metrics.graphite.sender.SnapshotEncoder;
+import com.hivemq.plugins.metrics.graphite.sender.Transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the reported datapoints of the last hours in memory, e.g. to backfill an endpoint after an outage
+ * or to inspect a series locally.
+ * <p>
+ * The datapoints of every series are compressed in {@link GorillaBlock}s of one hour, a datapoint of a series
+ * reported in a regular interval takes about two bytes. The memory is bounded: if the blocks exceed the
+ * configured bytes, the oldest closed blocks of all series are dropped first. If there are no closed blocks left
+ * to drop, new datapoints are dropped until blocks age out.
+ * <p>
+ * Datapoints are added from the reporting thread, they can be read from any thread.
+ */
+public class MetricHistory implements PayloadConsumer, Closeable {
+
+    static final String BYTES_METRIC = "com.hivemq.plugins.graphite.history.bytes";
+    static final String SERIES_METRIC = "com.hivemq.plugins.graphite.history.series";
+    static final String DROPPED_METRIC = "com.hivemq.plugins.graphite.history.dropped";
+
+    static final long BLOCK_SECONDS = 3600;
+
+    private static final long SWEEP_SECONDS = 60;
+    private static final int SERIES_OVERHEAD_BYTES = 128;
+    private static final int BATCH_BYTES = 1024 * 1024;
+    private static final int INSPECT_CHUNK_BYTES = 64 * 1024;
+
+    private final long retentionSeconds;
+    private final long maxBytes;
+    private final MetricRegistry registry;
+    private final Counter dropped;
+
+    private final ConcurrentMap<String, Series> series = new ConcurrentHashMap<>();
+    //closed blocks in the order they were closed, the oldest first
+    private final Queue<ClosedBlock> closedBlocks = new ConcurrentLinkedQueue<>();
+    private final AtomicLong bytes = new AtomicLong();
+
+    //only used from the reporting thread
+    private long nextSweep;
+
+    /**
+     * @param retentionSeconds how long datapoints are kept
+     * @param maxBytes         the memory the compressed datapoints may use
+     * @param registry         the registry to add the size of the history to
+     */
+    public MetricHistory(final long retentionSeconds, final long maxBytes, final MetricRegistry registry) {
+        this.retentionSeconds = retentionSeconds;
+        this.maxBytes = maxBytes;
+        this.registry = registry;
+
+        registry.remove(BYTES_METRIC);
+        registry.remove(SERIES_METRIC);
+        registry.register(BYTES_METRIC, new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return bytes.get();
+            }
+        });
+        registry.register(SERIES_METRIC, new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return series.size();
+            }
+        });
+        dropped = registry.counter(DROPPED_METRIC);
+    }
+
+    /**
+     * @return <code>null</code>, the history keeps the datapoints of the snapshot and no payload
+     */
+    @Override
+    public SnapshotEncoder getEncoder() {
+        return null;
+    }
+
+    @Override
+    public void offer(final MetricSnapshot snapshot, final byte[] payload) {
+        final long timestamp = snapshot.getTimestamp();
+        if (timestamp >= nextSweep) {
+            sweep(timestamp - retentionSeconds);
+            nextSweep = timestamp + SWEEP_SECONDS;
+        }
+
+        for (int i = 0; i < snapshot.size(); i++) {
+            if (bytes.get() >= maxBytes && !dropOldestBlock()) {
+                dropped.inc(snapshot.size() - i);
+                return;
+            }
+            final String name = snapshot.getName(i);
+            Series current = series.get(name);
+            if (current == null) {
+                current = new Series(name);
+                series.put(name, current);
+                bytes.addAndGet(SERIES_OVERHEAD_BYTES + 2 * name.length());
+            }
+            append(current, timestamp, snapshot.getValue(i), snapshot.isIntegral(i));
+        }
+    }
+
+    /**
+     * Sends the datapoints within a time range in the Graphite plaintext protocol.
+     * The datapoints are written in batches of about a megabyte, series after series.
+     *
+     * @param from        the first second to send, inclusive
+     * @param until       the last second to send, inclusive
+     * @param seriesNames the naming of the series, must not be used by another thread during the replay
+     * @param transport   the connected endpoint to send to
+     * @return the number of datapoints sent
+     */
+    public int replay(final long from, final long until, final SeriesNames seriesNames,
+                      final Transport transport) throws IOException {
+        final EncodeBuffer buffer = new EncodeBuffer(BATCH_BYTES + BATCH_BYTES / 8);
+        int count = 0;
+        for (Series current : sortedSeries(null)) {
+            count += current.write(from, until, seriesNames.encode(current.name), buffer);
+            if (buffer.position() >= BATCH_BYTES) {
+                transport.write(buffer.array(), 0, buffer.position());
+                buffer.reset();
+            }
+        }
+        if (buffer.position() > 0) {
+            transport.write(buffer.array(), 0, buffer.position());
+        }
+        transport.flush();
+        return count;
+    }
+
+    /**
+     * Writes the datapoints within a time range as Graphite plaintext lines with the metric names, for local
+     * inspection. The lines are written in chunks, so the history is never copied as a whole.
+     *
+     * @param from   the first second to write, inclusive
+     * @param until  the last second to write, inclusive
+     * @param filter selects the metric names to write, <code>null</code> for all
+     * @param out    the stream to write to, it is not closed
+     * @return the number of datapoints written
+     */
+    public int inspect(final long from, final long until, final NameGlob filter,
+                       final OutputStream out) throws IOException {
+        final EncodeBuffer buffer = new EncodeBuffer(INSPECT_CHUNK_BYTES + INSPECT_CHUNK_BYTES / 8);
+        final EncodeBuffer name = new EncodeBuffer(128);
+        int count = 0;
+        for (Series current : sortedSeries(filter)) {
+            name.reset();
+            name.writeString(current.name);
+            count += current.write(from, until, name.toByteArray(), buffer);
+            if (buffer.position() >= INSPECT_CHUNK_BYTES) {
+                out.write(buffer.array(), 0, buffer.position());
+                buffer.reset();
+            }
+        }
+        out.write(buffer.array(), 0, buffer.position());
+        return count;
+    }
+
+    /**
+     * @return how long datapoints are kept in seconds
+     */
+    public long getRetentionSeconds() {
+        return retentionSeconds;
+    }
+
+    /**
+     * @return the memory the compressed datapoints may use in bytes
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return the memory used by the compressed datapoints in bytes
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    @Override
+    public void close() {
+        registry.remove(BYTES_METRIC);
+        registry.remove(SERIES_METRIC);
+        registry.remove(DROPPED_METRIC);
+        series.clear();
+        closedBlocks.clear();
+        bytes.set(0);
+    }
+
+    private void append(final Series current, final long timestamp, final double value, final boolean integral) {
+        synchronized (current) {
+            current.integral = integral;
+            GorillaBlock open = current.open;
+            if (open != null && timestamp - open.getFirstTimestamp() >= BLOCK_SECONDS) {
+                bytes.addAndGet(-open.close());
+                current.closed.addLast(open);
+                closedBlocks.add(new ClosedBlock(current, open));
+                open = null;
+            }
+            if (open == null) {
+                open = new GorillaBlock(timestamp);
+                current.open = open;
+                bytes.addAndGet(open.sizeInBytes());
+            }
+            bytes.addAndGet(open.append(timestamp, value));
+        }
+    }
+
+    /**
+     * @return <code>false</code> if there was no closed block left to drop
+     */
+    private boolean dropOldestBlock() {
+        ClosedBlock oldest;
+        while ((oldest = closedBlocks.poll()) != null) {
+            synchronized (oldest.series) {
+                //the block may already have aged out
+                if (oldest.series.closed.remove(oldest.block)) {
+                    bytes.addAndGet(-oldest.block.sizeInBytes());
+                    dropped.inc(oldest.block.size());
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drops the blocks whose datapoints are all older than the cutoff and the series without datapoints.
+     */
+    private void sweep(final long cutoff) {
+        final Iterator<Series> iterator = series.values().iterator();
+        while (iterator.hasNext()) {
+            final Series current = iterator.next();
+            synchronized (current) {
+                while (!current.closed.isEmpty() && current.closed.peekFirst().getLastTimestamp() < cutoff) {
+                    bytes.addAndGet(-current.closed.pollFirst().sizeInBytes());
+                }
+                if (current.open != null && current.open.getLastTimestamp() < cutoff) {
+                    bytes.addAndGet(-current.open.sizeInBytes());
+                    current.open = null;
+                }
+                if (current.closed.isEmpty() && current.open == null) {
+                    iterator.remove();
+                    bytes.addAndGet(-(SERIES_OVERHEAD_BYTES + 2 * current.name.length()));
+                }
+            }
+        }
+        final Iterator<ClosedBlock> blocks = closedBlocks.iterator();
+        while (blocks.hasNext()) {
+            final ClosedBlock block = blocks.next();
+            if (block.block.getLastTimestamp() >= cutoff) {
+                break;
+            }
+            blocks.remove();
+        }
+    }
+
+    private List<Series> sortedSeries(final NameGlob filter) {
+        final List<Series> selected = new ArrayList<>();
+        for (Series current : series.values()) {
+            if (filter == null || filter.matches(current.name)) {
+                selected.add(current);
+            }
+        }
+        Collections.sort(selected);
+        return selected;
+    }
+
+    private static class Series implements Comparable<Series> {
+
+        private final String name;
+        //guarded by this
+        private final ArrayDeque<GorillaBlock> closed = new ArrayDeque<>();
+        private GorillaBlock open;
+        private boolean integral;
+
+        private Series(final String name) {
+            this.name = name;
+        }
+
+        /**
+         * Writes the datapoints within the range as plaintext lines.
+         *
+         * @return the number of written datapoints
+         */
+        private synchronized int write(final long from, final long until, final byte[] encodedName,
+                                       final EncodeBuffer buffer) {
+            int count = 0;
+            for (GorillaBlock block : closed) {
+                count += write(block, from, until, encodedName, buffer);
+            }
+            if (open != null) {
+                count += write(open, from, until, encodedName, buffer);
+            }
+            return count;
+        }
+
+        private int write(final GorillaBlock block, final long from, final long until, final byte[] encodedName,
+                          final EncodeBuffer buffer) {
+            if (block.getLastTimestamp() < from || block.getFirstTimestamp() > until) {
+                return 0;
+            }
+            int count = 0;
+            final GorillaBlock.Reader reader = block.reader();
+            while (reader.next()) {
+                final long timestamp = reader.getTimestamp();
+                if (timestamp < from || timestamp > until) {
+                    continue;
+                }
+                buffer.write(encodedName);
+                buffer.write(' ');
+                buffer.writeValue(reader.getValue(), integral);
+                buffer.write(' ');
+                buffer.writeLong(timestamp);
+                buffer.write('\n');
+                count++;
+            }
+            return count;
+        }
+
+        @Override
+        public int compareTo(final Series other) {
+            return name.compareTo(other.name);
+        }
+    }
+
+    private static class ClosedBlock {
+
+        private final Series series;
+        private final GorillaBlock block;
+
+        private ClosedBlock(final Series series, final GorillaBlock block) {
+            this.series = series;
+            this.block = block;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.plugins.metrics.graphite.history;
+
+/**
+ * Matches metric names against a Graphite style glob, e.g. <code>com.hivemq.*.connections</code>.
+ * <p>
+ * A <code>*</code> matches any characters within one level of the dotted name, a name matches if its first levels
+ * match the levels of the glob, so <code>com.hivemq.messages</code> selects all message metrics. Unlike a regular
+ * expression from a request, a glob is matched in time bounded by the lengths of the glob and the name.
+ */
+public class NameGlob {
+
+    public static final int MAX_LENGTH = 256;
+
+    private final String[] levels;
+
+    private NameGlob(final String[] levels) {
+        this.levels = levels;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the glob is empty or longer than {@link #MAX_LENGTH}
+     */
+    public static NameGlob compile(final String glob) {
+        if (glob.isEmpty()) {
+            throw new IllegalArgumentException("The glob must not be empty");
+        }
+        if (glob.length() > MAX_LENGTH) {
+            throw new IllegalArgumentException("The glob must not be longer than " + MAX_LENGTH + " characters");
+        }
+        return new NameGlob(glob.split("\\.", -1));
+    }
+
+    public boolean matches(final String name) {
+        int start = 0;
+        for (String level : levels) {
+            if (start > name.length()) {
+                //the name has fewer levels than the glob
+                return false;
+            }
+            int end = name.indexOf('.', start);
+            if (end < 0) {
+                end = name.length();
+            }
+            if (!matchesLevel(level, name, start, end)) {
+                return false;
+            }
+            start = end + 1;
+        }
+        return true;
+    }
+
+    /**
+     * Matches one level, after a mismatch only the last <code>*</code> takes one more character, so a level is
+     * matched in at most glob length times name length steps.
+     */
+    private static boolean matchesLevel(final String level, final String name, final int start, final int end) {
+        int g = 0;
+        int n = start;
+        int star = -1;
+        int starMatch = start;
+        while (n < end) {
+            if (g < level.length() && level.charAt(g) == '*') {
+                star = g++;
+                starMatch = n;
+            } else if (g < level.length() && level.charAt(g) == name.charAt(n)) {
+                g++;
+                n++;
+            } else if (star >= 0) {
+                g = star + 1;
+                n = ++starMatch;
+            } else {
+                return false;
+            }
+        }
+        while (g < level.length() && level.charAt(g) == '*') {
+            g++;
+        }
+        return g == level.length();
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.plugins.metrics.graphite.http;
+
+import com.hivemq.plugins.metrics.graphite.history.MetricHistory;
+import com.hivemq.plugins.metrics.graphite.history.NameGlob;
+import com.hivemq.plugins.metrics.graphite.reporter.ReporterThreads;
+import com.hivemq.plugins.metrics.graphite.sender.AddressResolver;
+import com.hivemq.plugins.metrics.graphite.sender.LatestPayload;
+import com.hivemq.plugins.metrics.graphite.sender.PayloadConsumer;
+import com.hivemq.plugins.metrics.graphite.sender.PlaintextEncoder;
+import com.hivemq.plugins.metrics.graphite.sender.PrometheusEncoder;
+import com.hivemq.plugins.metrics.graphite.sender.SeriesNames;
+import com.hivemq.plugins.metrics.graphite.sender.TcpTransport;
+import com.hivemq.plugins.metrics.graphite.sender.TokenBucket;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A local HTTP endpoint which serves the most recent reported snapshot for debugging and scrapers.
+ * <p>
+ * <code>/graphite</code> serves the Graphite plaintext lines and <code>/metrics</code> the Prometheus text format.
+ * Both are encoded once per tick by the {@link com.hivemq.plugins.metrics.graphite.sender.MetricsFanOut},
+ * the plaintext bytes are shared with the Graphite sink, so a scrape only copies a cached buffer to the socket.
+ * <p>
+ * If a {@link MetricHistory} is kept, <code>/history?from=&amp;until=&amp;match=</code> streams the kept datapoints
+ * of the metrics matching the {@link NameGlob} and a POST to
+ * <code>/history/replay?from=&amp;until=&amp;target=name</code> sends them to one of the configured Graphite
+ * endpoints, e.g. to backfill it after an outage. Only the configured endpoints can be targeted, so the endpoint
+ * can't be used to open connections to arbitrary hosts, and replays share the bandwidth limit of the senders. Times are in epoch seconds, by default the whole history
+ * is used. History requests run one after the other on their own thread, so they never delay a scrape.
+ */
+public class SnapshotHttpEndpoint {
+
+    private static final Logger log = LoggerFactory.getLogger(SnapshotHttpEndpoint.class);
+
+    static final String GRAPHITE_PATH = "/graphite";
+    static final String PROMETHEUS_PATH = "/metrics";
+    static final String HISTORY_PATH = "/history";
+    static final String REPLAY_PATH = "/history/replay";
+
+    private static final String GRAPHITE_CONTENT_TYPE = "text/plain; charset=utf-8";
+    private static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final InetSocketAddress address;
+    private final LatestPayload graphite;
+    private final LatestPayload prometheus;
+    private final MetricHistory history;
+    private final SeriesNames replayNames;
+    private final Map<String, InetSocketAddress> replayTargets;
+    private final TokenBucket bucket;
+    private final AddressResolver resolver;
+
+    private HttpServer server;
+    private ExecutorService historyExecutor;
+
+    /**
+     * @param address     the local address to listen on
+     * @param seriesNames the series naming of the Graphite sinks, to share their encoded payload
+     */
+    public SnapshotHttpEndpoint(final InetSocketAddress address, final SeriesNames seriesNames) {
+        this(address, seriesNames, null, null, Collections.<String, InetSocketAddress>emptyMap(), null, null);
+    }
+
+    /**
+     * @param address       the local address to listen on
+     * @param seriesNames   the series naming of the Graphite sinks, to share their encoded payload
+     * @param history       the history to serve, <code>null</code> if no history is kept
+     * @param replayNames   the series naming of replays, must not be shared with the reporting thread
+     * @param replayTargets the plaintext endpoints the history may be replayed to by their name
+     * @param bucket        the bandwidth limit shared with the senders, <code>null</code> if unlimited
+     * @param resolver      the address cache shared with the senders
+     */
+    public SnapshotHttpEndpoint(final InetSocketAddress address, final SeriesNames seriesNames,
+                                final MetricHistory history, final SeriesNames replayNames,
+                                final Map<String, InetSocketAddress> replayTargets,
+                                final TokenBucket bucket, final AddressResolver resolver) {
+        this.address = address;
+        this.graphite = new LatestPayload(new PlaintextEncoder(seriesNames));
+        this.prometheus = new LatestPayload(new PrometheusEncoder());
+        this.history = history;
+        this.replayNames = replayNames;
+        this.replayTargets = replayTargets;
+        this.bucket = bucket;
+        this.resolver = resolver;
+    }
+
+    /**
+     * @return the consumers which must be added to the fan out to receive the snapshots
+     */
+    public List<PayloadConsumer> getConsumers() {
+        return Arrays.<PayloadConsumer>asList(graphite, prometheus);
+    }
+
+    public void start() throws IOException {
+        server = HttpServer.create(address, 0);
+        server.createContext(GRAPHITE_PATH, new PayloadHandler(graphite, GRAPHITE_CONTENT_TYPE));
+        server.createContext(PROMETHEUS_PATH, new PayloadHandler(prometheus, PROMETHEUS_CONTENT_TYPE));
+        if (history != null) {
+            historyExecutor = ReporterThreads.newHistoryExecutor("graphite-history");
+            server.createContext(HISTORY_PATH, new HistoryHandler());
+            server.createContext(REPLAY_PATH, new ReplayHandler());
+        }
+        server.start();
+        log.info("Serving metrics on http://{}:{}{} and {}", address.getHostString(), getPort(),
+                GRAPHITE_PATH, PROMETHEUS_PATH);
+    }
+
+    /**
+     * @return the port the endpoint listens on, which is chosen by the system if 0 was configured
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+        if (historyExecutor != null) {
+            historyExecutor.shutdownNow();
+            historyExecutor = null;
+        }
+    }
+
+    private static class PayloadHandler implements HttpHandler {
+
+        private final LatestPayload payload;
+        private final String contentType;
+
+        private PayloadHandler(final LatestPayload payload, final String contentType) {
+            this.payload = payload;
+            this.contentType = contentType;
+        }
+
+        @Override
+        public void handle(final HttpExchange exchange) throws IOException {
+            try {
+                final String method = exchange.getRequestMethod();
+                if (!method.equals("GET") && !method.equals("HEAD")) {
+                    exchange.sendResponseHeaders(405, -1);
+                    return;
+                }
+
+                final byte[] bytes = payload.get();
+                if (bytes == null) {
+                    //nothing was reported yet
+                    exchange.sendResponseHeaders(503, -1);
+                    return;
+                }
+
+                exchange.getResponseHeaders().set("Content-Type", contentType);
+                if (method.equals("HEAD")) {
+                    exchange.sendResponseHeaders(200, -1);
+                    return;
+                }
+                exchange.sendResponseHeaders(200, bytes.length);
+                try (OutputStream body = exchange.getResponseBody()) {
+                    body.write(bytes);
+                }
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    private static void sendText(final HttpExchange exchange, final int status, final byte[] bytes) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", GRAPHITE_CONTENT_TYPE);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(bytes);
+        }
+    }
+
+    private static void sendText(final HttpExchange exchange, final int status, final String text) throws IOException {
+        sendText(exchange, status, (text + "\n").getBytes("UTF-8"));
+    }
+
+    private static Map<String, String> parseQuery(final HttpExchange exchange) throws IOException {
+        final Map<String, String> parameters = new HashMap<>();
+        final String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return parameters;
+        }
+        for (String parameter : query.split("&")) {
+            final int separator = parameter.indexOf('=');
+            if (separator > 0) {
+                parameters.put(URLDecoder.decode(parameter.substring(0, separator), "UTF-8"),
+                        URLDecoder.decode(parameter.substring(separator + 1), "UTF-8"));
+            }
+        }
+        return parameters;
+    }
+
+    private static long parseTime(final Map<String, String> parameters, final String name, final long defaultValue) {
+        final String value = parameters.get(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        return Long.parseLong(value);
+    }
+
+    /**
+     * Serves a request to the history on the history executor, or rejects it if too many are waiting.
+     */
+    private abstract class HistoryRequestHandler implements HttpHandler {
+
+        @Override
+        public void handle(final HttpExchange exchange) throws IOException {
+            try {
+                historyExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            serve(exchange);
+                        } catch (IOException | RuntimeException e) {
+                            log.debug("Unable to serve {}", exchange.getRequestURI(), e);
+                        } finally {
+                            exchange.close();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                try {
+                    sendText(exchange, 503, "Too many requests to the metric history, try again later");
+                } finally {
+                    exchange.close();
+                }
+            }
+        }
+
+        abstract void serve(HttpExchange exchange) throws IOException;
+    }
+
+    private class HistoryHandler extends HistoryRequestHandler {
+
+        @Override
+        void serve(final HttpExchange exchange) throws IOException {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            final Map<String, String> parameters = parseQuery(exchange);
+            final long from;
+            final long until;
+            final NameGlob filter;
+            try {
+                final String match = parameters.get("match");
+                from = parseTime(parameters, "from", 0);
+                until = parseTime(parameters, "until", Long.MAX_VALUE);
+                filter = match == null ? null : NameGlob.compile(match);
+            } catch (IllegalArgumentException e) {
+                sendText(exchange, 400, e.getMessage());
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", GRAPHITE_CONTENT_TYPE);
+            //chunked, the lines are streamed series by series
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream body = exchange.getResponseBody()) {
+                history.inspect(from, until, filter, body);
+            }
+        }
+    }
+
+    private class ReplayHandler extends HistoryRequestHandler {
+
+        @Override
+        void serve(final HttpExchange exchange) throws IOException {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            final Map<String, String> parameters = parseQuery(exchange);
+            final String target = parameters.get("target");
+            final long from;
+            final long until;
+            try {
+                from = parseTime(parameters, "from", 0);
+                until = parseTime(parameters, "until", Long.MAX_VALUE);
+            } catch (NumberFormatException e) {
+                sendText(exchange, 400, e.getMessage());
+                return;
+            }
+            final InetSocketAddress endpoint = target == null ? null : replayTargets.get(target);
+            if (endpoint == null) {
+                sendText(exchange, 400, "target must be one of " + replayTargets.keySet());
+                return;
+            }
+
+            final TcpTransport transport = new TcpTransport(endpoint.getHostString(), endpoint.getPort(),
+                    bucket, resolver);
+            final int count;
+            try {
+                transport.connect();
+                synchronized (replayNames) {
+                    count = history.replay(from, until, replayNames, transport);
+                }
+            } catch (IOException e) {
+                log.warn("Unable to replay the metric history to {}: {}", transport, e.getMessage());
+                sendText(exchange, 502, "Unable to replay to " + target + ": " + e.getMessage());
+                return;
+            } finally {
+                transport.close();
+            }
+            log.info("Replayed {} datapoints of the metric history to {}", count, transport);
+            sendText(exchange, 200, "Replayed " + count + " datapoints to " + target);
+        }
+    }
+}
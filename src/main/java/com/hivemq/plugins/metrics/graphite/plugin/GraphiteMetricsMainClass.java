@@ -17,6 +17,7 @@
 package com.hivemq.plugins.metrics.graphite.plugin;
 
 import com.hivemq.plugins.metrics.graphite.callbacks.GraphiteReporting;
+import com.hivemq.plugins.metrics.graphite.callbacks.TopicThroughput;
 import com.hivemq.spi.PluginEntryPoint;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,10 +31,13 @@ import javax.inject.Inject;
 public class GraphiteMetricsMainClass extends PluginEntryPoint {
 
     private final GraphiteReporting graphiteReporting;
+    private final TopicThroughput topicThroughput;
 
     @Inject
-    public GraphiteMetricsMainClass(final GraphiteReporting graphiteReporting) {
+    public GraphiteMetricsMainClass(final GraphiteReporting graphiteReporting,
+                                    final TopicThroughput topicThroughput) {
         this.graphiteReporting = graphiteReporting;
+        this.topicThroughput = topicThroughput;
     }
 
     /**
@@ -44,6 +48,7 @@ public class GraphiteMetricsMainClass extends PluginEntryPoint {
     public void postConstruct() {
 
         getCallbackRegistry().addCallback(graphiteReporting);
+        getCallbackRegistry().addCallback(topicThroughput);
     }
 
 }
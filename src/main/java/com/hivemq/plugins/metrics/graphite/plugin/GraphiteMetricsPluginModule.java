@@ -17,6 +17,7 @@
 package com.hivemq.plugins.metrics.graphite.plugin;
 
 import com.google.inject.Singleton;
+import com.hivemq.plugins.metrics.graphite.callbacks.TopicThroughput;
 import com.hivemq.plugins.metrics.graphite.utils.EnvironmentReader;
 import com.hivemq.plugins.metrics.graphite.utils.SystemEnvironmentReader;
 import com.hivemq.spi.HiveMQPluginModule;
@@ -37,6 +38,7 @@ public class GraphiteMetricsPluginModule extends HiveMQPluginModule {
     @Override
     protected void configurePlugin() {
         bind(EnvironmentReader.class).to(SystemEnvironmentReader.class).in(Singleton.class);
+        bind(TopicThroughput.class).in(Singleton.class);
     }
 
     /**
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.plugins.metrics.graphite.reporter;
+
+import java.util.regex.Pattern;
+
+/**
+ * Selects the counters which are sent as the change since the last interval instead of their total count.
+ * <p>
+ * Graphite then stores the rates directly, so dashboards don't need <code>nonNegativeDerivative()</code> at
+ * query time. The change is signed, because Dropwizard counters can also be decremented. Only if the counters
+ * are declared monotonic, a counter which is lower than in the last interval counts as reset and its change is
+ * the count since the reset. The first interval of a counter has no change and is not sent.
+ */
+public class CounterRates {
+
+    public static final CounterRates NONE = new CounterRates(null, false, false);
+
+    private final Pattern pattern;
+    private final boolean deltas;
+    private final boolean monotonic;
+
+    /**
+     * @param pattern   the pattern of the names of the counters, <code>null</code> to send the count of all counters
+     * @param deltas    <code>true</code> to send the change per interval, <code>false</code> to send it per second
+     * @param monotonic <code>true</code> if the counters only increase, so a decrease is a reset
+     */
+    public CounterRates(final Pattern pattern, final boolean deltas, final boolean monotonic) {
+        this.pattern = pattern;
+        this.deltas = deltas;
+        this.monotonic = monotonic;
+    }
+
+    MetricHandle.Type typeOf(final String counterName) {
+        if (pattern == null || !pattern.matcher(counterName).matches()) {
+            return MetricHandle.Type.COUNTER;
+        }
+        return deltas ? MetricHandle.Type.DELTA_COUNTER : MetricHandle.Type.RATE_COUNTER;
+    }
+
+    /**
+     * Adds the change of the counter since the last call to the snapshot.
+     *
+     * @param now the time of the tick in milliseconds
+     */
+    void report(final MetricSnapshot snapshot, final MetricHandle handle, final long count, final long now) {
+        if (handle.previousTime != MetricHandle.NO_PREVIOUS) {
+            long delta = count - handle.previousCount;
+            if (delta < 0 && monotonic) {
+                //reset since the last interval
+                delta = Math.max(0, count);
+            }
+            if (handle.type == MetricHandle.Type.DELTA_COUNTER) {
+                snapshot.add(handle.series[0], delta);
+            } else if (now > handle.previousTime) {
+                snapshot.add(handle.series[0], delta * 1000.0 / (now - handle.previousTime));
+            }
+        }
+        handle.previousCount = count;
+        handle.previousTime = now;
+    }
+}
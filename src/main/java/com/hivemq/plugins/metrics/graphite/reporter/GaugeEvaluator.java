@@ -0,0 +1,308 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.plugins.metrics.graphite.reporter;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Reads gauges with a time budget per gauge, so a single slow gauge does not delay the whole tick.
+ * <p>
+ * A gauge is read on a separate thread and the reporting thread waits at most the budget for it. If it does not
+ * return in time, the last value is reported as long as it is not older than the configured staleness, otherwise
+ * the gauge is skipped in this tick. A gauge which exceeds its budget several times in a row is moved to a slower
+ * interval and is refreshed in the background from then on. It moves back as soon as a read finishes within the
+ * budget again.
+ * <p>
+ * Only after {@link #PROBATION_READS} reads in a row within the budget a gauge is trusted and read inline by the
+ * reporting thread, which saves the hand-off for the vast majority of fast gauges. An inline read which exceeds
+ * the budget or fails puts the gauge back on probation. Gauges which fail are skipped in the tick and counted.
+ * <p>
+ * The evaluation time of all gauges is exposed as one timer. Gauges which exceeded their budget get their
+ * own timer <code>com.hivemq.plugins.graphite.gauge.&lt;name&gt;.evaluation</code>, to find the culprits.
+ * A budget of 0 evaluates all gauges inline, without a time limit.
+ */
+public class GaugeEvaluator implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(GaugeEvaluator.class);
+
+    static final String METRIC_PREFIX = "com.hivemq.plugins.graphite.gauge";
+
+    static final int PROBATION_READS = 3;
+
+    private final MetricRegistry metricRegistry;
+    private final long budgetNanos;
+    private final long stalenessNanos;
+    private final int maxOverruns;
+    private final long slowIntervalNanos;
+    private final ExecutorService executor;
+
+    private final Timer evaluation;
+    private final Counter timeouts;
+    private final Counter errors;
+    private final Map<String, GaugeState> states = new HashMap<>();
+
+    /**
+     * @param budget       the time a gauge may take per tick, 0 to evaluate inline
+     * @param staleness    the maximum age of a cached value which is reported instead of a timed out gauge
+     * @param maxOverruns  the number of consecutive timeouts after which a gauge is moved to the slow interval
+     * @param slowInterval the interval in which slow gauges are refreshed in the background
+     * @param unit         the unit of budget, staleness and slowInterval
+     */
+    public GaugeEvaluator(final MetricRegistry metricRegistry,
+                          final long budget,
+                          final long staleness,
+                          final int maxOverruns,
+                          final long slowInterval,
+                          final TimeUnit unit) {
+        this.metricRegistry = metricRegistry;
+        this.budgetNanos = unit.toNanos(budget);
+        this.stalenessNanos = unit.toNanos(staleness);
+        this.maxOverruns = Math.max(1, maxOverruns);
+        this.slowIntervalNanos = unit.toNanos(slowInterval);
+        this.executor = budget > 0 ? ReporterThreads.newEvaluationExecutor("graphite-gauge-evaluation") : null;
+        this.evaluation = metricRegistry.timer(MetricRegistry.name(METRIC_PREFIX, "evaluation"));
+        this.timeouts = metricRegistry.counter(MetricRegistry.name(METRIC_PREFIX, "timeouts"));
+        this.errors = metricRegistry.counter(MetricRegistry.name(METRIC_PREFIX, "errors"));
+    }
+
+    /**
+     * Must only be called from the reporting thread.
+     *
+     * @return the value of the gauge or <code>null</code> if no value is available in time or the gauge failed
+     */
+    public Object evaluate(final String name, final Gauge gauge) {
+        if (executor == null) {
+            final long start = System.nanoTime();
+            try {
+                return gauge.getValue();
+            } catch (RuntimeException e) {
+                failed(name, e);
+                return null;
+            } finally {
+                evaluation.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        GaugeState state = states.get(name);
+        if (state == null) {
+            state = new GaugeState(name, gauge);
+            states.put(name, state);
+        }
+
+        final long now = System.nanoTime();
+
+        if (state.withinBudget >= PROBATION_READS) {
+            final Object value;
+            try {
+                value = gauge.getValue();
+            } catch (RuntimeException e) {
+                state.withinBudget = 0;
+                failed(name, e);
+                return null;
+            }
+            final long duration = System.nanoTime() - now;
+            state.update(value, now + duration, duration);
+            if (duration > budgetNanos) {
+                overrun(state);
+                state.withinBudget = 0;
+            } else {
+                state.overruns = 0;
+            }
+            return value;
+        }
+
+        if (state.slow) {
+            if (!state.isRunning() && now - state.lastStart >= slowIntervalNanos) {
+                state.submit(now);
+            }
+            return state.cachedValue(now);
+        }
+
+        if (state.isRunning()) {
+            //still busy with an evaluation which already exceeded its budget
+            return state.cachedValue(now);
+        }
+
+        final Future<Object> future = state.submit(now);
+        if (future == null) {
+            return null;
+        }
+        try {
+            return future.get(budgetNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            overrun(state);
+            return state.cachedValue(now);
+        } catch (ExecutionException e) {
+            //already counted by the evaluating thread
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private void overrun(final GaugeState state) {
+        timeouts.inc();
+        state.overruns++;
+        if (state.timer == null) {
+            state.timer = metricRegistry.timer(MetricRegistry.name(METRIC_PREFIX, state.name, "evaluation"));
+        }
+        if (state.overruns >= maxOverruns && !state.slow) {
+            state.slow = true;
+            log.info("Gauge {} exceeded its evaluation budget {} times in a row, it is refreshed in the background from now on",
+                    state.name, state.overruns);
+        }
+    }
+
+    private void failed(final String name, final RuntimeException e) {
+        errors.inc();
+        log.debug("Unable to read gauge {}", name, e);
+    }
+
+    /**
+     * Forgets the state of a gauge, e.g. because it was removed from the registry.
+     */
+    public void remove(final String name) {
+        final GaugeState state = states.remove(name);
+        if (state != null && state.timer != null) {
+            metricRegistry.remove(MetricRegistry.name(METRIC_PREFIX, name, "evaluation"));
+        }
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        for (GaugeState state : states.values()) {
+            if (state.timer != null) {
+                metricRegistry.remove(MetricRegistry.name(METRIC_PREFIX, state.name, "evaluation"));
+            }
+        }
+        states.clear();
+        metricRegistry.remove(MetricRegistry.name(METRIC_PREFIX, "evaluation"));
+        metricRegistry.remove(MetricRegistry.name(METRIC_PREFIX, "timeouts"));
+        metricRegistry.remove(MetricRegistry.name(METRIC_PREFIX, "errors"));
+    }
+
+    private class GaugeState implements Callable<Object> {
+
+        private final String name;
+        private final Gauge gauge;
+
+        //only accessed by the reporting thread
+        private long lastStart;
+        private Future<Object> running;
+
+        //also written by the evaluating thread
+        private volatile int overruns;
+        private volatile int withinBudget;
+        private volatile boolean slow;
+
+        //read by the evaluating thread
+        private volatile Timer timer;
+
+        //written by the evaluating thread
+        private volatile Object value;
+        private volatile long valueTime;
+
+        private GaugeState(final String name, final Gauge gauge) {
+            this.name = name;
+            this.gauge = gauge;
+        }
+
+        @Override
+        public Object call() {
+            final long start = System.nanoTime();
+            final Object newValue;
+            try {
+                newValue = gauge.getValue();
+            } catch (RuntimeException e) {
+                withinBudget = 0;
+                failed(name, e);
+                throw e;
+            }
+            final long end = System.nanoTime();
+            final long duration = end - start;
+
+            update(newValue, end, duration);
+            if (duration < budgetNanos) {
+                recovered();
+            } else {
+                withinBudget = 0;
+            }
+            return newValue;
+        }
+
+        private void update(final Object newValue, final long time, final long duration) {
+            value = newValue;
+            valueTime = time;
+            evaluation.update(duration, TimeUnit.NANOSECONDS);
+            final Timer gaugeTimer = timer;
+            if (gaugeTimer != null) {
+                gaugeTimer.update(duration, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private Future<Object> submit(final long now) {
+            try {
+                lastStart = now;
+                running = executor.submit(this);
+                return running;
+            } catch (RejectedExecutionException e) {
+                return null;
+            }
+        }
+
+        private boolean isRunning() {
+            return running != null && !running.isDone();
+        }
+
+        private Object cachedValue(final long now) {
+            final Object cached = value;
+            if (cached != null && now - valueTime <= stalenessNanos) {
+                return cached;
+            }
+            return null;
+        }
+
+        private void recovered() {
+            if (overruns > 0 || slow) {
+                log.debug("Gauge {} is within its evaluation budget again", name);
+            }
+            overruns = 0;
+            slow = false;
+            withinBudget++;
+        }
+    }
+}
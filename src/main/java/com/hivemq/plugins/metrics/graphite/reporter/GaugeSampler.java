@@ -0,0 +1,117 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.plugins.metrics.graphite.reporter;
+
+import com.codahale.metrics.Gauge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Reads selected gauges several times per reporting interval, so short spikes are not lost between two ticks.
+ * <p>
+ * Gauges whose name matches the pattern are read every sample interval on a thread of the sampler into a ring
+ * buffer of primitives, which is allocated once when the gauge is registered. Per reporting interval only the
+ * min, max, mean and last value are sent, so the traffic does not grow with the sample rate.
+ * <p>
+ * The gauges are read inline without a time budget, only cheap gauges should be sampled.
+ */
+public class GaugeSampler implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(GaugeSampler.class);
+
+    public static final GaugeSampler NONE = new GaugeSampler(null, 1, 1, TimeUnit.SECONDS);
+
+    private final Pattern pattern;
+    private final long sampleIntervalMillis;
+    private final int capacity;
+    private final Map<String, GaugeSamples> gauges = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * @param pattern           the pattern of the names of the sampled gauges, <code>null</code> to sample none
+     * @param sampleInterval    the interval in which the gauges are read
+     * @param reportingInterval the interval in which the samples are reported
+     * @param unit              the unit of both intervals
+     */
+    public GaugeSampler(final Pattern pattern, final long sampleInterval, final long reportingInterval,
+                        final TimeUnit unit) {
+        this.pattern = pattern;
+        this.sampleIntervalMillis = Math.max(1, unit.toMillis(sampleInterval));
+        //room for a late tick, the oldest samples are overwritten afterwards
+        this.capacity = (int) Math.min(100_000, unit.toMillis(reportingInterval) / sampleIntervalMillis) + 2;
+    }
+
+    /**
+     * Starts sampling the gauges, does nothing if no gauges are sampled.
+     */
+    public synchronized void start() {
+        if (pattern == null || executor != null) {
+            return;
+        }
+        executor = ReporterThreads.newReportingExecutor("graphite-gauge-sampler");
+        executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                sample();
+            }
+        }, sampleIntervalMillis, sampleIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the ring buffer the gauge is sampled into or <code>null</code> if the gauge is not sampled
+     */
+    GaugeSamples add(final String name, final Gauge gauge) {
+        if (pattern == null || !pattern.matcher(name).matches()) {
+            return null;
+        }
+        final GaugeSamples samples = new GaugeSamples(gauge, capacity);
+        gauges.put(name, samples);
+        return samples;
+    }
+
+    void remove(final String name) {
+        gauges.remove(name);
+    }
+
+    void sample() {
+        for (Map.Entry<String, GaugeSamples> entry : gauges.entrySet()) {
+            try {
+                entry.getValue().sample();
+            } catch (RuntimeException e) {
+                log.debug("Unable to sample gauge {}", entry.getKey(), e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        gauges.clear();
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.plugins.metrics.graphite.reporter;
+
+import com.codahale.metrics.Gauge;
+
+/**
+ * The samples of one gauge within the current reporting interval, in a ring buffer of primitives.
+ * <p>
+ * The ring is allocated once with room for the samples of one interval. If the reporting is late and the ring
+ * overflows, the oldest samples are overwritten.
+ */
+class GaugeSamples {
+
+    private final Gauge gauge;
+    private final double[] values;
+
+    //guarded by this
+    private int next;
+    private int count;
+    private boolean integral;
+
+    GaugeSamples(final Gauge gauge, final int capacity) {
+        this.gauge = gauge;
+        this.values = new double[capacity];
+    }
+
+    /**
+     * Reads the gauge and adds its value, values which are not numbers are ignored.
+     */
+    void sample() {
+        final Object value = gauge.getValue();
+        if (value instanceof Float || value instanceof Double) {
+            add(((Number) value).doubleValue(), false);
+        } else if (value instanceof Byte || value instanceof Short
+                || value instanceof Integer || value instanceof Long) {
+            add(((Number) value).longValue(), true);
+        }
+    }
+
+    synchronized void add(final double value, final boolean isIntegral) {
+        values[next] = value;
+        next = (next + 1) % values.length;
+        if (count < values.length) {
+            count++;
+        }
+        integral = isIntegral;
+    }
+
+    /**
+     * Adds min, max, mean and last of the samples since the last call to the snapshot and starts a new interval.
+     * Nothing is added if there are no samples.
+     *
+     * @param series the names of the min, max, mean and last series
+     */
+    synchronized void report(final MetricSnapshot snapshot, final String[] series) {
+        if (count == 0) {
+            return;
+        }
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double sum = 0;
+        for (int i = 0, index = next - count + values.length; i < count; i++, index++) {
+            final double value = values[index % values.length];
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            sum += value;
+        }
+        final double last = values[(next - 1 + values.length) % values.length];
+        if (integral) {
+            snapshot.add(series[0], (long) min);
+            snapshot.add(series[1], (long) max);
+            snapshot.add(series[3], (long) last);
+        } else {
+            snapshot.add(series[0], min);
+            snapshot.add(series[1], max);
+            snapshot.add(series[3], last);
+        }
+        snapshot.add(series[2], sum / count);
+        count = 0;
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.plugins.metrics.graphite.reporter;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metered;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.ScheduledReporter;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.hivemq.plugins.metrics.graphite.sender.MetricsFanOut;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reports the metrics of a {@link MetricRegistry} to Graphite.
+ * <p>
+ * Produces the same series as the Dropwizard <code>GraphiteReporter</code>,
+ * but runs on an executor created by {@link ReporterThreads}, which uses virtual threads on JDK 21+.
+ * Every tick reads the metrics once into a {@link MetricSnapshot} which is then published to all sinks.
+ * <p>
+ * The metrics are not looked up in the registry every tick. A {@link MetricIndex} listens to the registry
+ * and the tick walks its handles, whose series names are built once when a metric is registered.
+ * <p>
+ * With more than one partition the interval is split into as many sub-ticks, and every sub-tick reports
+ * one partition of the metrics. Every metric is still reported once per interval, but the work and
+ * the traffic of a tick are spread over the interval instead of arriving in one burst.
+ * <p>
+ * The metrics of every {@link Priority} are collected in their own snapshot, high priority first.
+ * <p>
+ * Gauges selected by the {@link GaugeSampler} are read several times per interval and reported as
+ * min, max, mean and last. Counters selected by the {@link CounterRates} are reported as their change.
+ * <p>
+ * Every tick is recorded as a JFR event by {@link ReportingEvents} on JDK 21+.
+ */
+public class GraphiteMetricsReporter extends ScheduledReporter implements MetricIndex.EvictionListener {
+
+    private static final Logger log = LoggerFactory.getLogger(GraphiteMetricsReporter.class);
+
+    private final MetricRegistry registry;
+    private final MetricsFanOut fanOut;
+    private final GaugeEvaluator gaugeEvaluator;
+    private final Clock clock;
+    private final String prefix;
+    private final int partitions;
+    private final MetricIndex index;
+    private final GaugeSampler sampler;
+    private final CounterRates counterRates;
+    private final MetricSnapshot[] snapshots;
+    //by priority and partition, true if the last snapshot was not empty, only accessed by the reporting thread
+    private final boolean[] published;
+
+    //guarded by this
+    private int nextPartition;
+
+    public GraphiteMetricsReporter(final MetricRegistry registry,
+                                   final MetricsFanOut fanOut,
+                                   final GaugeEvaluator gaugeEvaluator,
+                                   final Clock clock,
+                                   final String prefix,
+                                   final int partitions,
+                                   final MetricPriorities priorities) {
+        this(registry, fanOut, gaugeEvaluator, clock, prefix, partitions, priorities, GaugeSampler.NONE,
+                CounterRates.NONE);
+    }
+
+    public GraphiteMetricsReporter(final MetricRegistry registry,
+                                   final MetricsFanOut fanOut,
+                                   final GaugeEvaluator gaugeEvaluator,
+                                   final Clock clock,
+                                   final String prefix,
+                                   final int partitions,
+                                   final MetricPriorities priorities,
+                                   final GaugeSampler sampler,
+                                   final CounterRates counterRates) {
+        super(registry, "graphite-reporter", MetricFilter.ALL, TimeUnit.SECONDS, TimeUnit.MILLISECONDS,
+                ReporterThreads.newReportingExecutor("graphite-reporter"));
+        this.registry = registry;
+        this.fanOut = fanOut;
+        this.gaugeEvaluator = gaugeEvaluator;
+        this.clock = clock;
+        this.prefix = prefix;
+        this.partitions = partitions;
+        this.sampler = sampler;
+        this.counterRates = counterRates;
+        this.index = new MetricIndex(prefix, partitions, priorities, sampler, counterRates);
+        this.snapshots = new MetricSnapshot[Priority.values().length];
+        for (Priority priority : Priority.values()) {
+            snapshots[priority.ordinal()] = new MetricSnapshot(priority);
+        }
+        this.published = new boolean[Priority.values().length * partitions];
+        registry.addListener(index);
+    }
+
+    /**
+     * Starts reporting, every metric is reported once per period.
+     * The sub-ticks of the partitions are scheduled in equal distances within the period.
+     */
+    @Override
+    public void start(final long period, final TimeUnit unit) {
+        sampler.start();
+        super.start(Math.max(1, unit.toMillis(period) / partitions), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Reports the next partition of the metrics of the index, called every sub-tick.
+     */
+    @Override
+    public void report() {
+        synchronized (this) {
+            final int partition = nextPartition;
+            nextPartition = (partition + 1) % partitions;
+            report(index.refresh(partition, this), partition, partitions);
+        }
+    }
+
+    /**
+     * Reports the given metrics instead of the registry, only used if the reporter is called directly.
+     */
+    @Override
+    public void report(final SortedMap<String, Gauge> gauges,
+                       final SortedMap<String, Counter> counters,
+                       final SortedMap<String, Histogram> histograms,
+                       final SortedMap<String, Meter> meters,
+                       final SortedMap<String, Timer> timers) {
+
+        final MetricIndex metrics = new MetricIndex(prefix, 1, MetricPriorities.NONE);
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            metrics.onGaugeAdded(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            metrics.onCounterAdded(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            metrics.onHistogramAdded(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, Meter> entry : meters.entrySet()) {
+            metrics.onMeterAdded(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            metrics.onTimerAdded(entry.getKey(), entry.getValue());
+        }
+        synchronized (this) {
+            report(metrics.refresh(0, this), 0, 1);
+        }
+    }
+
+    @Override
+    public void evicted(final MetricHandle handle) {
+        for (String series : handle.series) {
+            fanOut.evict(series);
+        }
+        if (handle.type == MetricHandle.Type.GAUGE) {
+            gaugeEvaluator.remove(handle.name);
+        }
+    }
+
+    @Override
+    public void stop() {
+        registry.removeListener(index);
+        try {
+            super.stop();
+        } finally {
+            fanOut.close();
+            gaugeEvaluator.close();
+            sampler.close();
+        }
+    }
+
+    private void report(final MetricHandle[] handles, final int partition, final int partitions) {
+        final long start = System.nanoTime();
+        final long now = clock.getTime();
+        final long timestamp = now / 1000;
+        for (MetricSnapshot snapshot : snapshots) {
+            snapshot.reset(timestamp, partition, partitions);
+        }
+
+        try {
+            for (MetricHandle handle : handles) {
+                final MetricSnapshot snapshot = snapshots[handle.priority.ordinal()];
+                switch (handle.type) {
+                    case GAUGE:
+                        reportGauge(snapshot, handle, (Gauge) handle.metric);
+                        break;
+                    case SAMPLED_GAUGE:
+                        handle.samples.report(snapshot, handle.series);
+                        break;
+                    case COUNTER:
+                        snapshot.add(handle.series[0], ((Counter) handle.metric).getCount());
+                        break;
+                    case RATE_COUNTER:
+                    case DELTA_COUNTER:
+                        counterRates.report(snapshot, handle, ((Counter) handle.metric).getCount(), now);
+                        break;
+                    case HISTOGRAM:
+                        reportHistogram(snapshot, handle, (Histogram) handle.metric);
+                        break;
+                    case METER:
+                        reportMetered(snapshot, handle.series, 0, (Meter) handle.metric);
+                        break;
+                    case TIMER:
+                        reportTimer(snapshot, handle, (Timer) handle.metric);
+                        break;
+                }
+            }
+
+            final long read = System.nanoTime();
+            int datapoints = 0;
+            int bytes = 0;
+            for (MetricSnapshot snapshot : snapshots) {
+                //an empty snapshot is published once, so it replaces the last one of the partition and priority
+                final int slot = snapshot.getPriority().ordinal() * partitions + partition;
+                if (snapshot.size() > 0 || published[slot]) {
+                    datapoints += snapshot.size();
+                    bytes += fanOut.publish(snapshot);
+                    published[slot] = snapshot.size() > 0;
+                }
+            }
+            ReportingEvents.tick(partition, datapoints, bytes, read - start, System.nanoTime() - read);
+        } catch (RuntimeException e) {
+            log.warn("Unable to report metrics", e);
+        }
+    }
+
+    private void reportTimer(final MetricSnapshot snapshot, final MetricHandle handle, final Timer timer) {
+        final Snapshot values = timer.getSnapshot();
+        final String[] series = handle.series;
+
+        snapshot.add(series[0], convertDuration(values.getMax()));
+        snapshot.add(series[1], convertDuration(values.getMean()));
+        snapshot.add(series[2], convertDuration(values.getMin()));
+        snapshot.add(series[3], convertDuration(values.getStdDev()));
+        snapshot.add(series[4], convertDuration(values.getMedian()));
+        snapshot.add(series[5], convertDuration(values.get75thPercentile()));
+        snapshot.add(series[6], convertDuration(values.get95thPercentile()));
+        snapshot.add(series[7], convertDuration(values.get98thPercentile()));
+        snapshot.add(series[8], convertDuration(values.get99thPercentile()));
+        snapshot.add(series[9], convertDuration(values.get999thPercentile()));
+
+        reportMetered(snapshot, series, 10, timer);
+    }
+
+    private void reportMetered(final MetricSnapshot snapshot, final String[] series, final int offset,
+                               final Metered meter) {
+        snapshot.add(series[offset], meter.getCount());
+        snapshot.add(series[offset + 1], convertRate(meter.getOneMinuteRate()));
+        snapshot.add(series[offset + 2], convertRate(meter.getFiveMinuteRate()));
+        snapshot.add(series[offset + 3], convertRate(meter.getFifteenMinuteRate()));
+        snapshot.add(series[offset + 4], convertRate(meter.getMeanRate()));
+    }
+
+    private void reportHistogram(final MetricSnapshot snapshot, final MetricHandle handle, final Histogram histogram) {
+        final Snapshot values = histogram.getSnapshot();
+        final String[] series = handle.series;
+
+        snapshot.add(series[0], histogram.getCount());
+        snapshot.add(series[1], values.getMax());
+        snapshot.add(series[2], values.getMean());
+        snapshot.add(series[3], values.getMin());
+        snapshot.add(series[4], values.getStdDev());
+        snapshot.add(series[5], values.getMedian());
+        snapshot.add(series[6], values.get75thPercentile());
+        snapshot.add(series[7], values.get95thPercentile());
+        snapshot.add(series[8], values.get98thPercentile());
+        snapshot.add(series[9], values.get99thPercentile());
+        snapshot.add(series[10], values.get999thPercentile());
+    }
+
+    private void reportGauge(final MetricSnapshot snapshot, final MetricHandle handle, final Gauge gauge) {
+        final Object value = gaugeEvaluator.evaluate(handle.name, gauge);
+        if (value instanceof Float || value instanceof Double) {
+            snapshot.add(handle.series[0], ((Number) value).doubleValue());
+        } else if (value instanceof Byte || value instanceof Short
+                || value instanceof Integer || value instanceof Long) {
+            snapshot.add(handle.series[0], ((Number) value).longValue());
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.plugins.metrics.graphite.reporter;
+
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * A metric of the {@link MetricIndex} together with the names of all series it is reported as.
+ * <p>
+ * The series names include the prefix and are built once when the metric is registered,
+ * so a tick does not build any strings.
+ */
+class MetricHandle {
+
+    enum Type {
+        GAUGE, SAMPLED_GAUGE, COUNTER, RATE_COUNTER, DELTA_COUNTER, HISTOGRAM, METER, TIMER
+    }
+
+    static final String[] SAMPLED_GAUGE_SERIES = {"min", "max", "mean", "last"};
+    static final String[] COUNTER_SERIES = {"count"};
+    static final String[] RATE_COUNTER_SERIES = {"rate"};
+    static final String[] DELTA_COUNTER_SERIES = {"delta"};
+    static final String[] HISTOGRAM_SERIES = {"count", "max", "mean", "min", "stddev",
+            "p50", "p75", "p95", "p98", "p99", "p999"};
+    static final String[] METER_SERIES = {"count", "m1_rate", "m5_rate", "m15_rate", "mean_rate"};
+    static final String[] TIMER_SERIES = {"max", "mean", "min", "stddev", "p50", "p75", "p95", "p98", "p99", "p999",
+            "count", "m1_rate", "m5_rate", "m15_rate", "mean_rate"};
+
+    final String name;
+    final Metric metric;
+    final Type type;
+    final String[] series;
+    final int partition;
+    final Priority priority;
+
+    static final long NO_PREVIOUS = Long.MIN_VALUE;
+
+    //only set for sampled gauges
+    final GaugeSamples samples;
+
+    //count and time in milliseconds of the last report of rate and delta counters,
+    //only accessed by the reporting thread
+    long previousCount;
+    long previousTime = NO_PREVIOUS;
+
+    MetricHandle(final String name, final Metric metric, final Type type, final String prefix,
+                 final int partition, final Priority priority) {
+        this(name, metric, type, prefix, partition, priority, null);
+    }
+
+    MetricHandle(final String name, final Metric metric, final Type type, final String prefix,
+                 final int partition, final Priority priority, final GaugeSamples samples) {
+        this.name = name;
+        this.metric = metric;
+        this.type = type;
+        this.partition = partition;
+        this.priority = priority;
+        this.samples = samples;
+        this.series = seriesNames(prefix, name, type);
+    }
+
+    private static String[] seriesNames(final String prefix, final String name, final Type type) {
+        final String[] suffixes;
+        switch (type) {
+            case GAUGE:
+                return new String[]{MetricRegistry.name(prefix, name)};
+            case SAMPLED_GAUGE:
+                suffixes = SAMPLED_GAUGE_SERIES;
+                break;
+            case COUNTER:
+                suffixes = COUNTER_SERIES;
+                break;
+            case RATE_COUNTER:
+                suffixes = RATE_COUNTER_SERIES;
+                break;
+            case DELTA_COUNTER:
+                suffixes = DELTA_COUNTER_SERIES;
+                break;
+            case HISTOGRAM:
+                suffixes = HISTOGRAM_SERIES;
+                break;
+            case METER:
+                suffixes = METER_SERIES;
+                break;
+            default:
+                suffixes = TIMER_SERIES;
+        }
+        final String[] names = new String[suffixes.length];
+        for (int i = 0; i < suffixes.length; i++) {
+            names[i] = MetricRegistry.name(prefix, name, suffixes[i]);
+        }
+        return names;
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.plugins.metrics.graphite.reporter;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistryListener;
+import com.codahale.metrics.Timer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps track of the live metrics of a {@link com.codahale.metrics.MetricRegistry} as {@link MetricHandle}s.
+ * <p>
+ * The index is updated by the registry whenever a metric is added or removed. The reporting thread gets a
+ * flat array of the handles of a partition via {@link #refresh(int, EvictionListener)}, which is only rebuilt
+ * after a change, so a tick neither copies nor sorts the registry. Metrics are assigned to partitions by the
+ * hash of their name, so a metric stays in the same partition as long as the number of partitions is the same.
+ * Removed metrics are handed to the {@link EvictionListener} on the reporting thread, so all per-metric caches
+ * can forget them.
+ */
+class MetricIndex extends MetricRegistryListener.Base {
+
+    private static final Comparator<MetricHandle> ORDER = new Comparator<MetricHandle>() {
+        @Override
+        public int compare(final MetricHandle first, final MetricHandle second) {
+            final int type = first.type.compareTo(second.type);
+            return type != 0 ? type : first.name.compareTo(second.name);
+        }
+    };
+
+    private final String prefix;
+    private final int partitions;
+    private final MetricPriorities priorities;
+    private final GaugeSampler sampler;
+    private final CounterRates counterRates;
+
+    //guarded by this
+    private final Map<String, MetricHandle> handles = new HashMap<>();
+    private final List<MetricHandle> removed = new ArrayList<>();
+
+    private volatile boolean dirty = true;
+
+    //only accessed by the reporting thread
+    private final MetricHandle[][] arrays;
+
+    MetricIndex(final String prefix, final int partitions, final MetricPriorities priorities) {
+        this(prefix, partitions, priorities, GaugeSampler.NONE, CounterRates.NONE);
+    }
+
+    /**
+     * @param sampler      samples the gauges it selects, these are reported as min, max, mean and last
+     * @param counterRates selects the counters which are reported as their change instead of their count
+     */
+    MetricIndex(final String prefix, final int partitions, final MetricPriorities priorities,
+                final GaugeSampler sampler, final CounterRates counterRates) {
+        this.prefix = prefix;
+        this.partitions = partitions;
+        this.priorities = priorities;
+        this.sampler = sampler;
+        this.counterRates = counterRates;
+        this.arrays = new MetricHandle[partitions][0];
+    }
+
+    static int partition(final String name, final int partitions) {
+        return (name.hashCode() & Integer.MAX_VALUE) % partitions;
+    }
+
+    /**
+     * Must only be called from the reporting thread.
+     *
+     * @param partition        the partition to return
+     * @param evictionListener is called for every metric which was removed since the last call
+     * @return all live metrics of the partition, ordered by type and name. The array must not be modified.
+     */
+    MetricHandle[] refresh(final int partition, final EvictionListener evictionListener) {
+        if (!dirty) {
+            return arrays[partition];
+        }
+
+        final MetricHandle[] all;
+        final MetricHandle[] evicted;
+        synchronized (this) {
+            dirty = false;
+            all = handles.values().toArray(new MetricHandle[handles.size()]);
+            evicted = removed.toArray(new MetricHandle[removed.size()]);
+            removed.clear();
+        }
+
+        Arrays.sort(all, ORDER);
+        final int[] sizes = new int[partitions];
+        for (MetricHandle handle : all) {
+            sizes[handle.partition]++;
+        }
+        for (int i = 0; i < partitions; i++) {
+            arrays[i] = new MetricHandle[sizes[i]];
+            sizes[i] = 0;
+        }
+        for (MetricHandle handle : all) {
+            arrays[handle.partition][sizes[handle.partition]++] = handle;
+        }
+
+        for (MetricHandle handle : evicted) {
+            evictionListener.evicted(handle);
+        }
+        return arrays[partition];
+    }
+
+    @Override
+    public void onGaugeAdded(final String name, final Gauge<?> gauge) {
+        final GaugeSamples samples = sampler.add(name, gauge);
+        final MetricHandle.Type type = samples == null ? MetricHandle.Type.GAUGE : MetricHandle.Type.SAMPLED_GAUGE;
+        add(new MetricHandle(name, gauge, type, prefix, partition(name, partitions), priorities.get(name), samples));
+    }
+
+    @Override
+    public void onGaugeRemoved(final String name) {
+        sampler.remove(name);
+        remove(name);
+    }
+
+    @Override
+    public void onCounterAdded(final String name, final Counter counter) {
+        add(new MetricHandle(name, counter, counterRates.typeOf(name), prefix, partition(name, partitions),
+                priorities.get(name)));
+    }
+
+    @Override
+    public void onCounterRemoved(final String name) {
+        remove(name);
+    }
+
+    @Override
+    public void onHistogramAdded(final String name, final Histogram histogram) {
+        add(new MetricHandle(name, histogram, MetricHandle.Type.HISTOGRAM, prefix, partition(name, partitions),
+                priorities.get(name)));
+    }
+
+    @Override
+    public void onHistogramRemoved(final String name) {
+        remove(name);
+    }
+
+    @Override
+    public void onMeterAdded(final String name, final Meter meter) {
+        add(new MetricHandle(name, meter, MetricHandle.Type.METER, prefix, partition(name, partitions),
+                priorities.get(name)));
+    }
+
+    @Override
+    public void onMeterRemoved(final String name) {
+        remove(name);
+    }
+
+    @Override
+    public void onTimerAdded(final String name, final Timer timer) {
+        add(new MetricHandle(name, timer, MetricHandle.Type.TIMER, prefix, partition(name, partitions),
+                priorities.get(name)));
+    }
+
+    @Override
+    public void onTimerRemoved(final String name) {
+        remove(name);
+    }
+
+    private synchronized void add(final MetricHandle handle) {
+        final MetricHandle previous = handles.put(handle.name, handle);
+        if (previous != null) {
+            removed.add(previous);
+        }
+        dirty = true;
+    }
+
+    private synchronized void remove(final String name) {
+        final MetricHandle previous = handles.remove(name);
+        if (previous != null) {
+            removed.add(previous);
+            dirty = true;
+        }
+    }
+
+    interface EvictionListener {
+
+        /**
+         * Called on the reporting thread for a metric which is no longer in the registry.
+         */
+        void evicted(MetricHandle handle);
+    }
+}
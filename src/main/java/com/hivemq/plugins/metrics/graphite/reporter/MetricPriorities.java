@@ -0,0 +1,52 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.plugins.metrics.graphite.reporter;
+
+import java.util.regex.Pattern;
+
+/**
+ * Assigns metrics to a {@link Priority} by their name.
+ * <p>
+ * A metric whose name matches the high priority pattern is {@link Priority#HIGH}, otherwise a metric whose name
+ * matches the low priority pattern is {@link Priority#LOW}. All other metrics are {@link Priority#NORMAL}.
+ */
+public class MetricPriorities {
+
+    public static final MetricPriorities NONE = new MetricPriorities(null, null);
+
+    private final Pattern high;
+    private final Pattern low;
+
+    /**
+     * @param high the pattern of the high priority metrics, may be <code>null</code>
+     * @param low  the pattern of the low priority metrics, may be <code>null</code>
+     */
+    public MetricPriorities(final Pattern high, final Pattern low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    public Priority get(final String metricName) {
+        if (high != null && high.matcher(metricName).matches()) {
+            return Priority.HIGH;
+        }
+        if (low != null && low.matcher(metricName).matches()) {
+            return Priority.LOW;
+        }
+        return Priority.NORMAL;
+    }
+}
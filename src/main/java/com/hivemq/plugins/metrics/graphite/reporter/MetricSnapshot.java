@@ -0,0 +1,143 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.plugins.metrics.graphite.reporter;
+
+import java.util.Arrays;
+
+/**
+ * All datapoints of one reporting tick.
+ * <p>
+ * The snapshot is filled once per tick by the reporter and then handed to every wire format encoder,
+ * so the metrics are only read once, no matter how many endpoints they are sent to.
+ * An instance is reused across ticks and is not thread safe.
+ * <p>
+ * Every priority class of metrics has its own snapshot per tick.
+ */
+public class MetricSnapshot {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final Priority priority;
+
+    private long timestamp;
+    private int partition;
+    private int partitions = 1;
+    private int size;
+    private String[] names = new String[INITIAL_CAPACITY];
+    private double[] values = new double[INITIAL_CAPACITY];
+    private boolean[] integral = new boolean[INITIAL_CAPACITY];
+
+    public MetricSnapshot() {
+        this(Priority.NORMAL);
+    }
+
+    public MetricSnapshot(final Priority priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * Removes all datapoints and sets the timestamp of the next tick.
+     *
+     * @param timestamp the timestamp in seconds
+     */
+    public void reset(final long timestamp) {
+        reset(timestamp, 0, 1);
+    }
+
+    /**
+     * Removes all datapoints and sets the timestamp and partition of the next sub-tick.
+     *
+     * @param timestamp  the timestamp in seconds
+     * @param partition  the partition of the metrics which is reported in this sub-tick
+     * @param partitions the number of partitions the metrics are split into
+     */
+    public void reset(final long timestamp, final int partition, final int partitions) {
+        this.timestamp = timestamp;
+        this.partition = partition;
+        this.partitions = partitions;
+        Arrays.fill(names, 0, size, null);
+        size = 0;
+    }
+
+    public void add(final String name, final long value) {
+        add(name, value, true);
+    }
+
+    public void add(final String name, final double value) {
+        add(name, value, false);
+    }
+
+    private void add(final String name, final double value, final boolean isIntegral) {
+        if (size == names.length) {
+            final int capacity = size * 2;
+            names = Arrays.copyOf(names, capacity);
+            values = Arrays.copyOf(values, capacity);
+            integral = Arrays.copyOf(integral, capacity);
+        }
+        names[size] = name;
+        values[size] = value;
+        integral[size] = isIntegral;
+        size++;
+    }
+
+    /**
+     * @return the timestamp of this tick in seconds
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the priority class of the metrics this snapshot contains
+     */
+    public Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return the partition of the metrics this snapshot contains, 0 if the metrics are not partitioned
+     */
+    public int getPartition() {
+        return partition;
+    }
+
+    /**
+     * @return the number of partitions the metrics are split into, a snapshot contains all metrics if this is 1
+     */
+    public int getPartitions() {
+        return partitions;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String getName(final int index) {
+        return names[index];
+    }
+
+    public double getValue(final int index) {
+        return values[index];
+    }
+
+    /**
+     * @return <code>true</code> if the value was reported as a whole number, e.g. a count
+     */
+    public boolean isIntegral(final int index) {
+        return integral[index];
+    }
+}
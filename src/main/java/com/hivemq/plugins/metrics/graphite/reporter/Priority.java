@@ -0,0 +1,28 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.plugins.metrics.graphite.reporter;
+
+/**
+ * The priority class of a metric.
+ * <p>
+ * The metrics of every class are reported in their own {@link MetricSnapshot}, so the sinks can send
+ * high priority series first and shed low priority series when an endpoint cannot keep up.
+ */
+public enum Priority {
+
+    HIGH, NORMAL, LOW
+}
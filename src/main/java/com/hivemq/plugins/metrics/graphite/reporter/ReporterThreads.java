@@ -0,0 +1,118 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.plugins.metrics.graphite.reporter;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the threads the reporter runs on.
+ * <p>
+ * This is the fallback implementation for JVMs older than 21, which uses daemon platform threads.
+ * The multi-release jar contains a JDK 21 variant of this class under {@code META-INF/versions/21}
+ * which uses virtual threads instead, so blocking socket writes do not pin platform threads.
+ */
+public final class ReporterThreads {
+
+    private static final int HISTORY_QUEUE_SIZE = 4;
+
+    private ReporterThreads() {
+    }
+
+    /**
+     * @return <code>true</code> if the executors created by this class run on virtual threads
+     */
+    public static boolean isVirtual() {
+        return false;
+    }
+
+    /**
+     * Creates the single threaded executor which runs the reporting ticks.
+     *
+     * @param name the name of the reporting thread
+     * @return a new scheduled executor
+     */
+    public static ScheduledExecutorService newReportingExecutor(final String name) {
+        return Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory(name));
+    }
+
+    /**
+     * Creates the executor which runs blocking writes to the metric endpoints.
+     *
+     * @param name the name prefix of the sending threads
+     * @return a new executor
+     */
+    public static ExecutorService newSendingExecutor(final String name) {
+        return Executors.newCachedThreadPool(new DaemonThreadFactory(name));
+    }
+
+    /**
+     * Creates the executor which evaluates gauges with a time budget.
+     *
+     * @param name the name prefix of the evaluating threads
+     * @return a new executor
+     */
+    public static ExecutorService newEvaluationExecutor(final String name) {
+        return Executors.newCachedThreadPool(new DaemonThreadFactory(name));
+    }
+
+    /**
+     * Creates the single threaded executor which sets up and tears down the reporting in the background,
+     * so the broker start does not wait for the endpoints.
+     *
+     * @param name the name of the thread
+     * @return a new executor
+     */
+    public static ExecutorService newStartupExecutor(final String name) {
+        return Executors.newSingleThreadExecutor(new DaemonThreadFactory(name));
+    }
+
+    /**
+     * Creates the executor which serves requests to the metric history, one at a time. Requests beyond a short
+     * queue are rejected, so inspections and replays neither pile up nor block the scrapes of the HTTP endpoint.
+     *
+     * @param name the name of the thread
+     * @return a new executor
+     */
+    public static ExecutorService newHistoryExecutor(final String name) {
+        return new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(HISTORY_QUEUE_SIZE), new DaemonThreadFactory(name));
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+
+        private final String name;
+        private final AtomicInteger counter = new AtomicInteger();
+
+        private DaemonThreadFactory(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
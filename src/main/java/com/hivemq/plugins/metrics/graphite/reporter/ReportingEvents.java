@@ -0,0 +1,65 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.plugins.metrics.graphite.reporter;
+
+/**
+ * Records the reporting ticks and the flushes to the endpoints as Java Flight Recorder events.
+ * <p>
+ * This is the fallback implementation for JVMs older than 21, which records nothing, so the plugin loads on
+ * JVMs without JFR. The multi-release jar contains a JDK 21 variant of this class under
+ * {@code META-INF/versions/21} which commits the events <code>com.hivemq.plugins.graphite.Tick</code> and
+ * <code>com.hivemq.plugins.graphite.Flush</code> while a recording is running.
+ */
+public final class ReportingEvents {
+
+    private ReportingEvents() {
+    }
+
+    /**
+     * @return <code>true</code> if the events are recorded to JFR
+     */
+    public static boolean isAvailable() {
+        return false;
+    }
+
+    /**
+     * Records a reporting tick.
+     *
+     * @param partition     the partition of the metrics which was reported
+     * @param datapoints    the number of datapoints of all snapshots of the tick
+     * @param bytes         the number of bytes all encoders produced
+     * @param snapshotNanos the time it took to read the metrics into the snapshots
+     * @param encodeNanos   the time it took to encode the snapshots and hand them to the sinks
+     */
+    public static void tick(final int partition, final int datapoints, final int bytes,
+                            final long snapshotNanos, final long encodeNanos) {
+    }
+
+    /**
+     * Records the write of a payload to an endpoint.
+     *
+     * @param sink          the name of the sink
+     * @param endpoint      the transport, its string representation is only built if the event is recorded
+     * @param bytes         the size of the payload
+     * @param durationNanos the time it took to connect, write and flush
+     * @param failure       the cause if the write failed, <code>null</code> otherwise
+     */
+    public static void flush(final String sink, final Object endpoint, final int bytes, final long durationNanos,
+                             final Exception failure) {
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.plugins.metrics.graphite.sender;
+
+import com.codahale.metrics.Clock;
+import com.hivemq.plugins.metrics.graphite.reporter.ReporterThreads;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Resolves the host names of the endpoints and caches the addresses.
+ * <p>
+ * A host is only looked up inline the first time. After the TTL the cached address is still returned and
+ * the host is looked up again in the background, so a reconnect never waits for a slow DNS server.
+ * If the lookup fails, the last address is kept until a later lookup succeeds.
+ */
+public class AddressResolver implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(AddressResolver.class);
+
+    private final long ttlMillis;
+    private final Clock clock;
+    private final ExecutorService executor;
+    private final ConcurrentMap<String, Entry> cache = new ConcurrentHashMap<>();
+
+    /**
+     * @param ttlMillis the time in milliseconds after which an address is looked up again, 0 to look up
+     *                  the host on every connect
+     */
+    public AddressResolver(final long ttlMillis) {
+        this(ttlMillis, Clock.defaultClock(), ReporterThreads.newSendingExecutor("graphite-resolver"));
+    }
+
+    AddressResolver(final long ttlMillis, final Clock clock, final ExecutorService executor) {
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+        this.executor = executor;
+    }
+
+    /**
+     * @return the address of the host, looked up inline only if it is not cached yet
+     * @throws UnknownHostException if the host is not cached and can't be resolved
+     */
+    public InetSocketAddress resolve(final String host, final int port) throws UnknownHostException {
+        if (ttlMillis == 0) {
+            return new InetSocketAddress(lookup(host), port);
+        }
+        Entry entry = cache.get(host);
+        if (entry == null) {
+            final Entry resolved = new Entry(lookup(host), clock.getTime());
+            entry = cache.putIfAbsent(host, resolved);
+            if (entry == null) {
+                entry = resolved;
+            }
+        } else if (clock.getTime() - entry.resolved >= ttlMillis) {
+            refresh(host, entry);
+        }
+        return new InetSocketAddress(entry.address, port);
+    }
+
+    /**
+     * Looks up the host in the background, so the first connect to it does not wait for DNS either.
+     */
+    public void prefetch(final String host) {
+        if (ttlMillis == 0 || cache.containsKey(host)) {
+            return;
+        }
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    cache.putIfAbsent(host, new Entry(lookup(host), clock.getTime()));
+                } catch (UnknownHostException e) {
+                    log.debug("Unable to resolve {}: {}", host, e.getMessage());
+                }
+            }
+        });
+    }
+
+    private void refresh(final String host, final Entry entry) {
+        if (!entry.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    cache.put(host, new Entry(lookup(host), clock.getTime()));
+                } catch (UnknownHostException e) {
+                    log.debug("Unable to resolve {}, using the last address {}: {}",
+                            host, entry.address, e.getMessage());
+                    entry.refreshing.set(false);
+                }
+            }
+        });
+    }
+
+    private void submit(final Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            //the resolver is closed
+        }
+    }
+
+    InetAddress lookup(final String host) throws UnknownHostException {
+        return InetAddress.getByName(host);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private static class Entry {
+
+        private final InetAddress address;
+        private final long resolved;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private Entry(final InetAddress address, final long resolved) {
+            this.address = address;
+            this.resolved = resolved;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.plugins.metrics.graphite.sender;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * A growable byte buffer the encoders write to.
+ * <p>
+ * It is reused across ticks, so encoding a snapshot does not allocate once the buffer has grown
+ * to the size of a tick. Numbers are written without going through {@link String#format}.
+ */
+public class EncodeBuffer {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private byte[] bytes;
+    private int position;
+
+    public EncodeBuffer(final int initialCapacity) {
+        bytes = new byte[initialCapacity];
+    }
+
+    public void reset() {
+        position = 0;
+    }
+
+    public int position() {
+        return position;
+    }
+
+    public byte[] array() {
+        return bytes;
+    }
+
+    /**
+     * @return a copy of the written bytes
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(bytes, position);
+    }
+
+    public void write(final int b) {
+        ensureCapacity(1);
+        bytes[position++] = (byte) b;
+    }
+
+    public void write(final byte[] src) {
+        write(src, 0, src.length);
+    }
+
+    public void write(final byte[] src, final int offset, final int length) {
+        ensureCapacity(length);
+        System.arraycopy(src, offset, bytes, position, length);
+        position += length;
+    }
+
+    /**
+     * Writes a string, characters outside of ASCII are written as UTF-8.
+     */
+    public void writeString(final String s) {
+        final int length = s.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            final char c = s.charAt(i);
+            if (c >= 0x80) {
+                //slow path for the rare non ASCII name
+                write(s.substring(i).getBytes(UTF_8));
+                return;
+            }
+            bytes[position++] = (byte) c;
+        }
+    }
+
+    /**
+     * Reserves bytes which are filled in later, e.g. a length header.
+     */
+    public void skip(final int length) {
+        ensureCapacity(length);
+        position += length;
+    }
+
+    /**
+     * Writes a 32 bit big endian integer at the given position without moving the write position.
+     */
+    public void putInt(final int index, final int value) {
+        bytes[index] = (byte) (value >>> 24);
+        bytes[index + 1] = (byte) (value >>> 16);
+        bytes[index + 2] = (byte) (value >>> 8);
+        bytes[index + 3] = (byte) value;
+    }
+
+    public void writeLong(final long value) {
+        if (value == Long.MIN_VALUE) {
+            writeString(Long.toString(value));
+            return;
+        }
+        long v = value;
+        if (v < 0) {
+            write('-');
+            v = -v;
+        }
+        final int digits = digits(v);
+        ensureCapacity(digits);
+        int index = position + digits;
+        do {
+            bytes[--index] = (byte) ('0' + (v % 10));
+            v /= 10;
+        } while (v != 0);
+        position += digits;
+    }
+
+    /**
+     * Writes an unsigned protobuf varint, 7 bits per byte with the least significant group first.
+     */
+    public void writeVarint(final long value) {
+        ensureCapacity(10);
+        long v = value;
+        while ((v & ~0x7FL) != 0) {
+            bytes[position++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        bytes[position++] = (byte) v;
+    }
+
+    /**
+     * @return the number of bytes {@link #writeVarint(long)} writes for the value
+     */
+    public static int varintSize(final long value) {
+        int size = 1;
+        long v = value;
+        while ((v & ~0x7FL) != 0) {
+            size++;
+            v >>>= 7;
+        }
+        return size;
+    }
+
+    /**
+     * Writes a 64 bit little endian integer, e.g. a protobuf fixed64 or double.
+     */
+    public void writeLongLittleEndian(final long value) {
+        ensureCapacity(8);
+        for (int i = 0; i < 8; i++) {
+            bytes[position++] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    /**
+     * Writes a double with two decimal places, the same as <code>String.format("%2.2f", value)</code>.
+     */
+    public void writeFixed2(final double value) {
+        final double shifted = Math.abs(value) * 100;
+        final double fractionOfCent = shifted - Math.floor(shifted);
+        if (Double.isNaN(value) || Double.isInfinite(value) || Math.abs(value) >= 1e13
+                || Math.abs(fractionOfCent - 0.5) < 1e-6) {
+            //rare cases where rounding of the binary value may differ from the decimal rounding of the formatter
+            writeString(String.format(Locale.US, "%2.2f", value));
+            return;
+        }
+        if (value < 0 || (value == 0 && 1 / value < 0)) {
+            write('-');
+        }
+        final long scaled = Math.round(shifted);
+        writeLong(scaled / 100);
+        write('.');
+        final long fraction = scaled % 100;
+        write((int) ('0' + fraction / 10));
+        write((int) ('0' + fraction % 10));
+    }
+
+    /**
+     * Writes a value of a snapshot, whole numbers without and all others with two decimal places.
+     */
+    public void writeValue(final double value, final boolean integral) {
+        if (integral) {
+            writeLong((long) value);
+        } else {
+            writeFixed2(value);
+        }
+    }
+
+    private static int digits(final long value) {
+        long limit = 10;
+        for (int digits = 1; digits < 19; digits++) {
+            if (value < limit) {
+                return digits;
+            }
+            limit *= 10;
+        }
+        return 19;
+    }
+
+    private void ensureCapacity(final int additional) {
+        if (position + additional > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, position + additional));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.plugins.metrics.graphite.sender;
+
+import com.hivemq.plugins.metrics.graphite.reporter.MetricSnapshot;
+
+/**
+ * Encodes datapoints in the InfluxDB line protocol: <code>name value=value timestamp\n</code>
+ * <p>
+ * The metric name is the measurement and the value is written to the field <code>value</code>.
+ * Timestamps are written in nanoseconds, the default precision of InfluxDB.
+ */
+public class InfluxLineEncoder implements SnapshotEncoder {
+
+    private static final byte[] FIELD = " value=".getBytes();
+    private static final String NANOS_PER_SECOND = "000000000";
+
+    @Override
+    public void encode(final MetricSnapshot snapshot, final EncodeBuffer buffer) {
+        final long timestamp = snapshot.getTimestamp();
+        for (int i = 0; i < snapshot.size(); i++) {
+            writeMeasurement(snapshot.getName(i), buffer);
+            buffer.write(FIELD);
+            buffer.writeValue(snapshot.getValue(i), snapshot.isIntegral(i));
+            buffer.write(' ');
+            buffer.writeLong(timestamp);
+            buffer.writeString(NANOS_PER_SECOND);
+            buffer.write('\n');
+        }
+    }
+
+    private static void writeMeasurement(final String name, final EncodeBuffer buffer) {
+        for (int i = 0; i < name.length(); i++) {
+            if (needsEscape(name.charAt(i))) {
+                buffer.writeString(escape(name));
+                return;
+            }
+        }
+        buffer.writeString(name);
+    }
+
+    private static String escape(final String name) {
+        final StringBuilder builder = new StringBuilder(name.length() + 8);
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            if (needsEscape(c)) {
+                builder.append('\\');
+            }
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    private static boolean needsEscape(final char c) {
+        return c == ',' || c == ' ' || c == '\\';
+    }
+
+    @Override
+    public void evict(final String metricName) {
+        //nothing cached per series
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        return o instanceof InfluxLineEncoder;
+    }
+
+    @Override
+    public int hashCode() {
+        return InfluxLineEncoder.class.hashCode();
+    }
+}
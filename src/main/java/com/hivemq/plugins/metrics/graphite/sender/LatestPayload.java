@@ -0,0 +1,98 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.plugins.metrics.graphite.sender;
+
+import com.hivemq.plugins.metrics.graphite.reporter.MetricSnapshot;
+import com.hivemq.plugins.metrics.graphite.reporter.Priority;
+
+/**
+ * Keeps the encoded snapshot of the most recent tick, e.g. to serve it to scrapers.
+ * <p>
+ * If the metrics are reported in partitions or priority classes, the most recent payload of every partition
+ * and class is kept, so all metrics are served and not only the ones of the last snapshot. The payloads are
+ * joined once after they changed, every scrape in between gets the same array.
+ */
+public class LatestPayload implements PayloadConsumer {
+
+    private final SnapshotEncoder encoder;
+
+    //guarded by this
+    private byte[][] parts = new byte[1][];
+    private volatile byte[] joined;
+
+    public LatestPayload(final SnapshotEncoder encoder) {
+        this.encoder = encoder;
+    }
+
+    @Override
+    public SnapshotEncoder getEncoder() {
+        return encoder;
+    }
+
+    @Override
+    public synchronized void offer(final MetricSnapshot snapshot, final byte[] payload) {
+        final int slots = snapshot.getPartitions() * Priority.values().length;
+        if (parts.length != slots) {
+            parts = new byte[slots][];
+        }
+        parts[snapshot.getPriority().ordinal() * snapshot.getPartitions() + snapshot.getPartition()] = payload;
+        joined = null;
+    }
+
+    /**
+     * @return the payload of the last tick or <code>null</code> if there was no tick yet. The array is shared
+     * and must not be modified.
+     */
+    public byte[] get() {
+        final byte[] current = joined;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (joined == null) {
+                joined = join(parts);
+            }
+            return joined;
+        }
+    }
+
+    private static byte[] join(final byte[][] parts) {
+        int length = 0;
+        int count = 0;
+        byte[] last = null;
+        for (byte[] part : parts) {
+            if (part != null) {
+                length += part.length;
+                count++;
+                last = part;
+            }
+        }
+        if (count <= 1) {
+            return last;
+        }
+
+        final byte[] payload = new byte[length];
+        int position = 0;
+        for (byte[] part : parts) {
+            if (part != null) {
+                System.arraycopy(part, 0, payload, position, part.length);
+                position += part.length;
+            }
+        }
+        return payload;
+    }
+}
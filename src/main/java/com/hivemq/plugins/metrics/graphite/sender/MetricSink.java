@@ -0,0 +1,259 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.plugins.metrics.graphite.sender;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.hivemq.plugins.metrics.graphite.reporter.MetricSnapshot;
+import com.hivemq.plugins.metrics.graphite.reporter.Priority;
+import com.hivemq.plugins.metrics.graphite.reporter.ReporterThreads;
+import com.hivemq.plugins.metrics.graphite.reporter.ReportingEvents;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One endpoint the metrics are sent to.
+ * <p>
+ * Every sink has its own bounded queue of encoded payloads and its own sending thread, so a slow or
+ * unreachable endpoint never delays the reporting tick or the other sinks. Failures, drops and write latency
+ * are exposed as metrics of the sink.
+ * <p>
+ * Payloads are queued in one lane per {@link Priority}. The sending thread always sends the high priority lane
+ * first and drops normal and low priority payloads which missed the deadline, because the next tick already
+ * carries newer values. If a lane is full or the endpoint fails, the queued low priority payloads are shed
+ * before any other payload is dropped.
+ */
+public class MetricSink implements PayloadConsumer, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(MetricSink.class);
+
+    static final String METRIC_PREFIX = "com.hivemq.plugins.graphite.sink";
+
+    private final String name;
+    private final SnapshotEncoder encoder;
+    private final Transport transport;
+    private final List<BlockingQueue<QueuedPayload>> lanes = new ArrayList<>();
+    private final long deadlineNanos;
+    private final ExecutorService executor;
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    private final MetricRegistry metricRegistry;
+    private final Counter failures;
+    private final Counter dropped;
+    private final Timer latency;
+
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    public MetricSink(final String name,
+                      final SnapshotEncoder encoder,
+                      final Transport transport,
+                      final int queueSize,
+                      final MetricRegistry metricRegistry) {
+        this(name, encoder, transport, queueSize, 0, metricRegistry);
+    }
+
+    /**
+     * @param queueSize      the number of payloads queued per priority lane
+     * @param deadlineMillis the time in milliseconds after which queued normal and low priority payloads are
+     *                       dropped instead of sent, 0 to send all payloads
+     */
+    public MetricSink(final String name,
+                      final SnapshotEncoder encoder,
+                      final Transport transport,
+                      final int queueSize,
+                      final long deadlineMillis,
+                      final MetricRegistry metricRegistry) {
+        this.name = name;
+        this.encoder = encoder;
+        this.transport = transport;
+        for (int i = 0; i < Priority.values().length; i++) {
+            lanes.add(new ArrayBlockingQueue<QueuedPayload>(Math.max(1, queueSize)));
+        }
+        this.deadlineNanos = TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+        this.executor = ReporterThreads.newSendingExecutor("graphite-sink-" + name);
+        this.metricRegistry = metricRegistry;
+        this.failures = metricRegistry.counter(MetricRegistry.name(METRIC_PREFIX, name, "failures"));
+        this.dropped = metricRegistry.counter(MetricRegistry.name(METRIC_PREFIX, name, "dropped"));
+        this.latency = metricRegistry.timer(MetricRegistry.name(METRIC_PREFIX, name, "latency"));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public SnapshotEncoder getEncoder() {
+        return encoder;
+    }
+
+    /**
+     * Queues an encoded payload for sending, the payload must not be modified afterwards.
+     */
+    @Override
+    public void offer(final MetricSnapshot snapshot, final byte[] payload) {
+        final BlockingQueue<QueuedPayload> lane = lanes.get(snapshot.getPriority().ordinal());
+        final QueuedPayload queued = new QueuedPayload(payload, System.nanoTime());
+        while (!lane.offer(queued)) {
+            if (shedLowPriority() == 0 && lane.poll() != null) {
+                dropped.inc();
+            }
+        }
+        scheduleDrain();
+    }
+
+    /**
+     * Drops all queued low priority payloads.
+     *
+     * @return the number of dropped payloads
+     */
+    private int shedLowPriority() {
+        final BlockingQueue<QueuedPayload> lane = lanes.get(Priority.LOW.ordinal());
+        int shed = 0;
+        while (lane.poll() != null) {
+            shed++;
+        }
+        dropped.inc(shed);
+        return shed;
+    }
+
+    /**
+     * @return the next payload to send, high priority first, or <code>null</code> if all lanes are empty
+     */
+    private byte[] next() {
+        for (Priority priority : Priority.values()) {
+            final BlockingQueue<QueuedPayload> lane = lanes.get(priority.ordinal());
+            QueuedPayload queued;
+            while ((queued = lane.poll()) != null) {
+                if (priority == Priority.HIGH || deadlineNanos == 0
+                        || System.nanoTime() - queued.queued <= deadlineNanos) {
+                    return queued.payload;
+                }
+                dropped.inc();
+            }
+        }
+        return null;
+    }
+
+    private boolean isEmpty() {
+        for (BlockingQueue<QueuedPayload> lane : lanes) {
+            if (!lane.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void scheduleDrain() {
+        if (draining.compareAndSet(false, true)) {
+            try {
+                executor.execute(drainTask);
+            } catch (RejectedExecutionException e) {
+                draining.set(false);
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            byte[] payload;
+            while ((payload = next()) != null) {
+                send(payload);
+            }
+        } finally {
+            draining.set(false);
+        }
+        if (!isEmpty()) {
+            scheduleDrain();
+        }
+    }
+
+    private void send(final byte[] payload) {
+        final long start = System.nanoTime();
+        try {
+            if (!transport.isConnected()) {
+                transport.connect();
+            }
+            transport.write(payload, 0, payload.length);
+            transport.flush();
+            final long duration = System.nanoTime() - start;
+            latency.update(duration, TimeUnit.NANOSECONDS);
+            ReportingEvents.flush(name, transport, payload.length, duration, null);
+        } catch (IOException e) {
+            failures.inc();
+            ReportingEvents.flush(name, transport, payload.length, System.nanoTime() - start, e);
+            log.warn("Unable to send metrics to {} ({}): {}", name, transport, e.getMessage());
+            log.debug("Original exception", e);
+            closeTransport();
+            shedLowPriority();
+        }
+    }
+
+    private void closeTransport() {
+        try {
+            transport.close();
+        } catch (IOException e) {
+            log.debug("Error closing connection to {}", transport, e);
+        }
+    }
+
+    /**
+     * Stops the sending thread, closes the connection and removes the metrics of this sink.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeTransport();
+        metricRegistry.remove(MetricRegistry.name(METRIC_PREFIX, name, "failures"));
+        metricRegistry.remove(MetricRegistry.name(METRIC_PREFIX, name, "dropped"));
+        metricRegistry.remove(MetricRegistry.name(METRIC_PREFIX, name, "latency"));
+    }
+
+    private static class QueuedPayload {
+
+        private final byte[] payload;
+        private final long queued;
+
+        private QueuedPayload(final byte[] payload, final long queued) {
+            this.payload = payload;
+            this.queued = queued;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.plugins.metrics.graphite.sender;
+
+import com.hivemq.plugins.metrics.graphite.reporter.MetricSnapshot;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sends the snapshot of a tick to all configured sinks and other consumers.
+ * <p>
+ * The snapshot is encoded once per distinct encoder and the encoded bytes are shared by all consumers using
+ * that encoder. Sending happens on the threads of the sinks, so this only blocks for the encoding.
+ * Consumers without an encoder receive the snapshot only.
+ */
+public class MetricsFanOut implements Closeable {
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    private static final byte[] EMPTY = new byte[0];
+
+    private final List<? extends PayloadConsumer> consumers;
+    private final Map<SnapshotEncoder, List<PayloadConsumer>> consumersByEncoder = new LinkedHashMap<>();
+    private final EncodeBuffer buffer = new EncodeBuffer(INITIAL_BUFFER_SIZE);
+
+    public MetricsFanOut(final List<? extends PayloadConsumer> consumers) {
+        this.consumers = consumers;
+        for (PayloadConsumer consumer : consumers) {
+            List<PayloadConsumer> sharing = consumersByEncoder.get(consumer.getEncoder());
+            if (sharing == null) {
+                sharing = new ArrayList<>();
+                consumersByEncoder.put(consumer.getEncoder(), sharing);
+            }
+            sharing.add(consumer);
+        }
+    }
+
+    /**
+     * Encodes the snapshot and hands it to every consumer. Must only be called from the reporting thread.
+     * An empty snapshot is only handed to the {@link LatestPayload}s, so it replaces the last payload of its
+     * partition and priority and the series which are no longer reported are no longer served.
+     *
+     * @return the number of bytes all encoders produced
+     */
+    public int publish(final MetricSnapshot snapshot) {
+        if (snapshot.size() == 0) {
+            for (PayloadConsumer consumer : consumers) {
+                if (consumer instanceof LatestPayload) {
+                    consumer.offer(snapshot, EMPTY);
+                }
+            }
+            return 0;
+        }
+        int bytes = 0;
+        for (Map.Entry<SnapshotEncoder, List<PayloadConsumer>> entry : consumersByEncoder.entrySet()) {
+            final byte[] payload;
+            if (entry.getKey() == null) {
+                payload = null;
+            } else {
+                buffer.reset();
+                entry.getKey().encode(snapshot, buffer);
+                payload = buffer.toByteArray();
+                bytes += payload.length;
+            }
+            for (PayloadConsumer consumer : entry.getValue()) {
+                consumer.offer(snapshot, payload);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Evicts a series which is no longer reported from the caches of all encoders.
+     * Must only be called from the reporting thread.
+     */
+    public void evict(final String metricName) {
+        for (SnapshotEncoder encoder : consumersByEncoder.keySet()) {
+            if (encoder != null) {
+                encoder.evict(metricName);
+            }
+        }
+    }
+
+    /**
+     * Closes all sinks.
+     */
+    @Override
+    public void close() {
+        for (PayloadConsumer consumer : consumers) {
+            if (consumer instanceof MetricSink) {
+                ((MetricSink) consumer).close();
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.plugins.metrics.graphite.sender;
+
+/**
+ * Utility methods for metric names on the wire.
+ */
+final class Names {
+
+    private Names() {
+    }
+
+    /**
+     * Replaces whitespace with '-', the same as the Dropwizard Graphite senders do.
+     *
+     * @param name the metric name
+     * @return the name itself if it contains no whitespace
+     */
+    static String sanitize(final String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.isWhitespace(name.charAt(i))) {
+                return replace(name);
+            }
+        }
+        return name;
+    }
+
+    private static String replace(final String name) {
+        final StringBuilder builder = new StringBuilder(name.length());
+        boolean previousWhitespace = false;
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            if (Character.isWhitespace(c)) {
+                if (!previousWhitespace) {
+                    builder.append('-');
+                }
+                previousWhitespace = true;
+            } else {
+                builder.append(c);
+                previousWhitespace = false;
+            }
+        }
+        return builder.toString();
+    }
+}
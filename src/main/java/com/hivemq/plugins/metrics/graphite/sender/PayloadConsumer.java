@@ -0,0 +1,38 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.plugins.metrics.graphite.sender;
+
+import com.hivemq.plugins.metrics.graphite.reporter.MetricSnapshot;
+
+/**
+ * Receives the encoded snapshot of every tick from the {@link MetricsFanOut}.
+ */
+public interface PayloadConsumer {
+
+    /**
+     * @return the encoder of the payloads this consumer receives, <code>null</code> to receive the snapshot only
+     */
+    SnapshotEncoder getEncoder();
+
+    /**
+     * Called from the reporting thread, must not block. The payload must not be modified.
+     *
+     * @param snapshot the snapshot the payload was encoded from, must not be kept after the call
+     * @param payload  the encoded snapshot, <code>null</code> if the consumer has no encoder
+     */
+    void offer(MetricSnapshot snapshot, byte[] payload);
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.plugins.metrics.graphite.sender;
+
+import com.hivemq.plugins.metrics.graphite.reporter.MetricSnapshot;
+
+/**
+ * Encodes datapoints in the Graphite pickle protocol.
+ * <p>
+ * The datapoints are split into messages of at most <code>batchSize</code> datapoints. Every message
+ * is prefixed with its length as 4 byte big endian integer, the same as the Dropwizard PickledGraphite does.
+ */
+public class PickleEncoder implements SnapshotEncoder {
+
+    private static final char MARK = '(';
+    private static final char STOP = '.';
+    private static final char LONG = 'L';
+    private static final char STRING = 'S';
+    private static final char APPEND = 'a';
+    private static final char LIST = 'l';
+    private static final char TUPLE = 't';
+    private static final char QUOTE = '\'';
+    private static final char LF = '\n';
+
+    private final int batchSize;
+    private final SeriesNames seriesNames;
+
+    public PickleEncoder(final int batchSize, final SeriesNames seriesNames) {
+        this.batchSize = Math.max(1, batchSize);
+        this.seriesNames = seriesNames;
+    }
+
+    @Override
+    public void encode(final MetricSnapshot snapshot, final EncodeBuffer buffer) {
+        final long timestamp = snapshot.getTimestamp();
+        int i = 0;
+        while (i < snapshot.size()) {
+            final int end = Math.min(snapshot.size(), i + batchSize);
+
+            final int header = buffer.position();
+            buffer.skip(4);
+
+            final int start = buffer.position();
+            buffer.write(MARK);
+            buffer.write(LIST);
+            for (; i < end; i++) {
+                buffer.write(MARK);
+                buffer.write(STRING);
+                buffer.write(QUOTE);
+                buffer.write(seriesNames.encode(snapshot.getName(i)));
+                buffer.write(QUOTE);
+                buffer.write(LF);
+                buffer.write(MARK);
+                buffer.write(LONG);
+                buffer.writeLong(timestamp);
+                buffer.write(LONG);
+                buffer.write(LF);
+                buffer.write(STRING);
+                buffer.write(QUOTE);
+                buffer.writeValue(snapshot.getValue(i), snapshot.isIntegral(i));
+                buffer.write(QUOTE);
+                buffer.write(LF);
+                buffer.write(TUPLE);
+                buffer.write(TUPLE);
+                buffer.write(APPEND);
+            }
+            buffer.write(STOP);
+            buffer.putInt(header, buffer.position() - start);
+        }
+    }
+
+    @Override
+    public void evict(final String metricName) {
+        seriesNames.evict(metricName);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        return o instanceof PickleEncoder && ((PickleEncoder) o).batchSize == batchSize
+                && ((PickleEncoder) o).seriesNames == seriesNames;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * batchSize + seriesNames.hashCode();
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.plugins.metrics.graphite.sender;
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Dotted Graphite paths, the metric name with whitespace replaced.
+ */
+public class PlainSeriesNames implements SeriesNames {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Map<String, byte[]> cache = new HashMap<>();
+
+    @Override
+    public byte[] encode(final String metricName) {
+        byte[] encoded = cache.get(metricName);
+        if (encoded == null) {
+            encoded = Names.sanitize(metricName).getBytes(UTF_8);
+            cache.put(metricName, encoded);
+        }
+        return encoded;
+    }
+
+    @Override
+    public void evict(final String metricName) {
+        cache.remove(metricName);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.plugins.metrics.graphite.sender;
+
+import com.hivemq.plugins.metrics.graphite.reporter.MetricSnapshot;
+
+/**
+ * Encodes datapoints in the Graphite plaintext protocol: <code>name value timestamp\n</code>
+ */
+public class PlaintextEncoder implements SnapshotEncoder {
+
+    private final SeriesNames seriesNames;
+
+    public PlaintextEncoder(final SeriesNames seriesNames) {
+        this.seriesNames = seriesNames;
+    }
+
+    @Override
+    public void encode(final MetricSnapshot snapshot, final EncodeBuffer buffer) {
+        final long timestamp = snapshot.getTimestamp();
+        for (int i = 0; i < snapshot.size(); i++) {
+            buffer.write(seriesNames.encode(snapshot.getName(i)));
+            buffer.write(' ');
+            buffer.writeValue(snapshot.getValue(i), snapshot.isIntegral(i));
+            buffer.write(' ');
+            buffer.writeLong(timestamp);
+            buffer.write('\n');
+        }
+    }
+
+    @Override
+    public void evict(final String metricName) {
+        seriesNames.evict(metricName);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        return o instanceof PlaintextEncoder && ((PlaintextEncoder) o).seriesNames == seriesNames;
+    }
+
+    @Override
+    public int hashCode() {
+        return seriesNames.hashCode();
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.plugins.metrics.graphite.sender;
+
+import com.hivemq.plugins.metrics.graphite.reporter.MetricSnapshot;
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encodes datapoints in the Prometheus text format: <code>name value\n</code>
+ * <p>
+ * Characters which are not allowed in Prometheus metric names, e.g. the dots of the Graphite paths,
+ * are replaced with '_'. The encoded names are cached per metric.
+ */
+public class PrometheusEncoder implements SnapshotEncoder {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Map<String, byte[]> names = new HashMap<>();
+
+    @Override
+    public void encode(final MetricSnapshot snapshot, final EncodeBuffer buffer) {
+        for (int i = 0; i < snapshot.size(); i++) {
+            buffer.write(name(snapshot.getName(i)));
+            buffer.write(' ');
+            buffer.writeValue(snapshot.getValue(i), snapshot.isIntegral(i));
+            buffer.write('\n');
+        }
+    }
+
+    @Override
+    public void evict(final String metricName) {
+        names.remove(metricName);
+    }
+
+    private byte[] name(final String metricName) {
+        byte[] encoded = names.get(metricName);
+        if (encoded == null) {
+            encoded = sanitize(metricName).getBytes(UTF_8);
+            names.put(metricName, encoded);
+        }
+        return encoded;
+    }
+
+    static String sanitize(final String metricName) {
+        final StringBuilder builder = new StringBuilder(metricName.length() + 1);
+        for (int i = 0; i < metricName.length(); i++) {
+            final char c = metricName.charAt(i);
+            final boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == ':'
+                    || (i > 0 && c >= '0' && c <= '9');
+            if (i == 0 && c >= '0' && c <= '9') {
+                builder.append('_');
+                builder.append(c);
+            } else {
+                builder.append(valid ? c : '_');
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.plugins.metrics.graphite.sender;
+
+import com.hivemq.plugins.metrics.graphite.reporter.MetricSnapshot;
+
+/**
+ * Encodes datapoints in the protobuf format of the Carbon 1.1 protobuf receiver.
+ * <p>
+ * The messages are written directly into the buffer instead of through generated builders, which keeps
+ * protobuf out of the plugin jar and does not allocate per datapoint. The schema of Carbon is
+ * <pre>
+ * message Point { uint32 timestamp = 1; double value = 2; }
+ * message Metric { string metric = 1; repeated Point points = 2; }
+ * message Payload { repeated Metric metrics = 1; }
+ * </pre>
+ * The datapoints are split into payloads of at most <code>batchSize</code> metrics, every payload is prefixed
+ * with its length as 4 byte big endian integer, the same framing as the pickle protocol.
+ */
+public class ProtobufEncoder implements SnapshotEncoder {
+
+    private static final int LENGTH_DELIMITED = 2;
+    private static final int VARINT = 0;
+    private static final int FIXED64 = 1;
+
+    private static final int PAYLOAD_METRICS = tag(1, LENGTH_DELIMITED);
+    private static final int METRIC_NAME = tag(1, LENGTH_DELIMITED);
+    private static final int METRIC_POINTS = tag(2, LENGTH_DELIMITED);
+    private static final int POINT_TIMESTAMP = tag(1, VARINT);
+    private static final int POINT_VALUE = tag(2, FIXED64);
+
+    private final int batchSize;
+    private final SeriesNames seriesNames;
+
+    public ProtobufEncoder(final int batchSize, final SeriesNames seriesNames) {
+        this.batchSize = Math.max(1, batchSize);
+        this.seriesNames = seriesNames;
+    }
+
+    @Override
+    public void encode(final MetricSnapshot snapshot, final EncodeBuffer buffer) {
+        final long timestamp = snapshot.getTimestamp() & 0xFFFFFFFFL;
+        final int pointSize = 1 + EncodeBuffer.varintSize(timestamp) + 1 + 8;
+
+        int i = 0;
+        while (i < snapshot.size()) {
+            final int end = Math.min(snapshot.size(), i + batchSize);
+
+            final int header = buffer.position();
+            buffer.skip(4);
+
+            final int start = buffer.position();
+            for (; i < end; i++) {
+                final byte[] name = seriesNames.encode(snapshot.getName(i));
+                final int metricSize = 1 + EncodeBuffer.varintSize(name.length) + name.length
+                        + 1 + EncodeBuffer.varintSize(pointSize) + pointSize;
+
+                buffer.write(PAYLOAD_METRICS);
+                buffer.writeVarint(metricSize);
+
+                buffer.write(METRIC_NAME);
+                buffer.writeVarint(name.length);
+                buffer.write(name);
+
+                buffer.write(METRIC_POINTS);
+                buffer.writeVarint(pointSize);
+                buffer.write(POINT_TIMESTAMP);
+                buffer.writeVarint(timestamp);
+                buffer.write(POINT_VALUE);
+                buffer.writeLongLittleEndian(Double.doubleToRawLongBits(snapshot.getValue(i)));
+            }
+            buffer.putInt(header, buffer.position() - start);
+        }
+    }
+
+    @Override
+    public void evict(final String metricName) {
+        seriesNames.evict(metricName);
+    }
+
+    private static int tag(final int field, final int wireType) {
+        return field << 3 | wireType;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        return o instanceof ProtobufEncoder && ((ProtobufEncoder) o).batchSize == batchSize
+                && ((ProtobufEncoder) o).seriesNames == seriesNames;
+    }
+
+    @Override
+    public int hashCode() {
+        return 37 * batchSize + seriesNames.hashCode();
+    }
+}
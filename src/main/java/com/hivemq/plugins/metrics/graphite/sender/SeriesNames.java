@@ -0,0 +1,39 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.plugins.metrics.graphite.sender;
+
+/**
+ * Turns metric names into the encoded series names of the Graphite wire formats.
+ * <p>
+ * Implementations cache the encoded bytes per metric, so the names are only built once and not every tick.
+ * They are only used from the reporting thread.
+ */
+public interface SeriesNames {
+
+    /**
+     * @param metricName the name of the datapoint in the snapshot
+     * @return the encoded series name, must not be modified by the caller
+     */
+    byte[] encode(String metricName);
+
+    /**
+     * Removes the cached name of a series which is no longer reported.
+     *
+     * @param metricName the name of the datapoint in the snapshot
+     */
+    void evict(String metricName);
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.plugins.metrics.graphite.sender;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Paces the bytes written to a stream with a {@link TokenBucket}, in chunks of at most the burst size.
+ */
+class ShapedOutputStream extends FilterOutputStream {
+
+    private final TokenBucket bucket;
+
+    ShapedOutputStream(final OutputStream out, final TokenBucket bucket) {
+        super(out);
+        this.bucket = bucket;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        bucket.acquire(1);
+        out.write(b);
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        int position = off;
+        final int end = off + len;
+        while (position < end) {
+            final int chunk = Math.min(end - position, bucket.getBurst());
+            bucket.acquire(chunk);
+            out.write(b, position, chunk);
+            position += chunk;
+        }
+    }
+}
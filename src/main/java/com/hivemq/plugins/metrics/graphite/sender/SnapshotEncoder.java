@@ -0,0 +1,43 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.plugins.metrics.graphite.sender;
+
+import com.hivemq.plugins.metrics.graphite.reporter.MetricSnapshot;
+
+/**
+ * Encodes a {@link MetricSnapshot} into the bytes of one wire format.
+ * <p>
+ * Encoders are called from the reporting thread only. Two encoders which are equal produce the same bytes,
+ * so a snapshot is encoded only once for all sinks sharing an encoder.
+ */
+public interface SnapshotEncoder {
+
+    /**
+     * Writes all datapoints of the snapshot to the buffer.
+     *
+     * @param snapshot the datapoints of the current tick
+     * @param buffer   the buffer to write to
+     */
+    void encode(MetricSnapshot snapshot, EncodeBuffer buffer);
+
+    /**
+     * Forgets everything cached for a series which is no longer reported.
+     *
+     * @param metricName the name of the datapoint in the snapshot
+     */
+    void evict(String metricName);
+}
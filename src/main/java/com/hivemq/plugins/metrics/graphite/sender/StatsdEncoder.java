@@ -0,0 +1,74 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.plugins.metrics.graphite.sender;
+
+import com.hivemq.plugins.metrics.graphite.reporter.MetricSnapshot;
+
+/**
+ * Encodes datapoints in the StatsD protocol: <code>name:value|g\n</code>
+ * <p>
+ * All datapoints are sent as gauges, because the snapshot contains absolute values and not increments.
+ * StatsD reads a signed gauge value as a change of the gauge, so a negative value is preceded by a datapoint
+ * that sets the gauge to 0. StatsD sets the timestamp itself when it flushes.
+ */
+public class StatsdEncoder implements SnapshotEncoder {
+
+    @Override
+    public void encode(final MetricSnapshot snapshot, final EncodeBuffer buffer) {
+        for (int i = 0; i < snapshot.size(); i++) {
+            final double value = snapshot.getValue(i);
+            if (value < 0) {
+                writeGauge(snapshot.getName(i), 0, true, buffer);
+            }
+            writeGauge(snapshot.getName(i), value, snapshot.isIntegral(i), buffer);
+        }
+    }
+
+    private static void writeGauge(final String name, final double value, final boolean integral,
+                                   final EncodeBuffer buffer) {
+        writeName(name, buffer);
+        buffer.write(':');
+        buffer.writeValue(value, integral);
+        buffer.write('|');
+        buffer.write('g');
+        buffer.write('\n');
+    }
+
+    private static void writeName(final String name, final EncodeBuffer buffer) {
+        final String sanitized = Names.sanitize(name);
+        if (sanitized.indexOf(':') < 0 && sanitized.indexOf('|') < 0) {
+            buffer.writeString(sanitized);
+        } else {
+            buffer.writeString(sanitized.replace(':', '_').replace('|', '_'));
+        }
+    }
+
+    @Override
+    public void evict(final String metricName) {
+        //nothing cached per series
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        return o instanceof StatsdEncoder;
+    }
+
+    @Override
+    public int hashCode() {
+        return StatsdEncoder.class.hashCode();
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.plugins.metrics.graphite.sender;
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Graphite 1.1 tagged series: <code>path;tag1=value1;tag2=value2</code>
+ * <p>
+ * Every series gets the tags <code>node</code> and, if configured, <code>cluster</code>. A {@link TagRule} extracts
+ * a tag from the metric name, the extracted part is removed from the path, so e.g. the same metric of different
+ * nodes or listeners ends up in one series with different tags instead of separate path trees.
+ */
+public class TaggedSeriesNames implements SeriesNames {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String node;
+    private final String cluster;
+    private final List<TagRule> rules;
+    private final Map<String, byte[]> cache = new HashMap<>();
+
+    /**
+     * @param node    the value of the node tag
+     * @param cluster the value of the cluster tag, <code>null</code> if the tag should not be added
+     * @param rules   the rules to extract further tags from the metric names
+     */
+    public TaggedSeriesNames(final String node, final String cluster, final List<TagRule> rules) {
+        this.node = node;
+        this.cluster = cluster;
+        this.rules = rules;
+    }
+
+    @Override
+    public byte[] encode(final String metricName) {
+        byte[] encoded = cache.get(metricName);
+        if (encoded == null) {
+            encoded = build(metricName).getBytes(UTF_8);
+            cache.put(metricName, encoded);
+        }
+        return encoded;
+    }
+
+    @Override
+    public void evict(final String metricName) {
+        cache.remove(metricName);
+    }
+
+    String build(final String metricName) {
+        final Map<String, String> tags = new TreeMap<>();
+        String path = metricName;
+
+        for (TagRule rule : rules) {
+            final Matcher matcher = rule.getPattern().matcher(path);
+            if (matcher.find() && matcher.group(1) != null && !matcher.group(1).isEmpty()) {
+                tags.put(rule.getTag(), tagValue(matcher.group(1)));
+                path = removeDots(path.substring(0, matcher.start(1)) + path.substring(matcher.end(1)));
+            }
+        }
+
+        tags.put("node", tagValue(node));
+        if (cluster != null) {
+            tags.put("cluster", tagValue(cluster));
+        }
+
+        final StringBuilder builder = new StringBuilder(Names.sanitize(path));
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            builder.append(';').append(tag.getKey()).append('=').append(tag.getValue());
+        }
+        return builder.toString();
+    }
+
+    private static String removeDots(final String path) {
+        String result = path;
+        while (result.contains("..")) {
+            result = result.replace("..", ".");
+        }
+        if (result.startsWith(".")) {
+            result = result.substring(1);
+        }
+        if (result.endsWith(".")) {
+            result = result.substring(0, result.length() - 1);
+        }
+        return result;
+    }
+
+    /**
+     * Tag values must not contain ';' or whitespace and must not start with '~'.
+     */
+    private static String tagValue(final String value) {
+        String sanitized = Names.sanitize(value).replace(';', '_');
+        if (sanitized.startsWith("~")) {
+            sanitized = "_" + sanitized.substring(1);
+        }
+        return sanitized;
+    }
+
+    /**
+     * Extracts the first capturing group of a pattern as value of a tag.
+     */
+    public static class TagRule {
+
+        private final String tag;
+        private final Pattern pattern;
+
+        public TagRule(final String tag, final Pattern pattern) {
+            this.tag = tag;
+            this.pattern = pattern;
+        }
+
+        public String getTag() {
+            return tag;
+        }
+
+        public Pattern getPattern() {
+            return pattern;
+        }
+    }
+}
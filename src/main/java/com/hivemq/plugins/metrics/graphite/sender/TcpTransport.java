@@ -0,0 +1,116 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.plugins.metrics.graphite.sender;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Writes payloads to a TCP endpoint, e.g. a Carbon receiver.
+ */
+public class TcpTransport implements Transport {
+
+    private static final int CONNECT_TIMEOUT = 5000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String host;
+    private final int port;
+    private final TokenBucket bucket;
+    private final AddressResolver resolver;
+
+    private Socket socket;
+    private OutputStream outputStream;
+
+    public TcpTransport(final String host, final int port) {
+        this(host, port, null);
+    }
+
+    /**
+     * @param bucket limits the bandwidth of the connection, <code>null</code> for no limit
+     */
+    public TcpTransport(final String host, final int port, final TokenBucket bucket) {
+        this(host, port, bucket, null);
+    }
+
+    /**
+     * @param bucket   limits the bandwidth of the connection, <code>null</code> for no limit
+     * @param resolver caches the address of the host, <code>null</code> to look it up on every connect
+     */
+    public TcpTransport(final String host, final int port, final TokenBucket bucket, final AddressResolver resolver) {
+        this.host = host;
+        this.port = port;
+        this.bucket = bucket;
+        this.resolver = resolver;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        if (isConnected()) {
+            throw new IllegalStateException("Already connected to " + this);
+        }
+        final Socket newSocket = new Socket();
+        try {
+            newSocket.connect(resolver == null ? new InetSocketAddress(host, port) : resolver.resolve(host, port),
+                    CONNECT_TIMEOUT);
+        } catch (IOException e) {
+            newSocket.close();
+            throw e;
+        }
+        socket = newSocket;
+        final OutputStream socketStream = bucket == null
+                ? socket.getOutputStream()
+                : new ShapedOutputStream(socket.getOutputStream(), bucket);
+        outputStream = new BufferedOutputStream(socketStream, BUFFER_SIZE);
+    }
+
+    @Override
+    public boolean isConnected() {
+        return socket != null && socket.isConnected() && !socket.isClosed();
+    }
+
+    @Override
+    public void write(final byte[] payload, final int offset, final int length) throws IOException {
+        outputStream.write(payload, offset, length);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (outputStream != null) {
+            outputStream.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+        } finally {
+            socket = null;
+            outputStream = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "tcp://" + host + ":" + port;
+    }
+}
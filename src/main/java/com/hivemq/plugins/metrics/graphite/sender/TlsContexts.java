@@ -0,0 +1,80 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.plugins.metrics.graphite.sender;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+/**
+ * Creates the {@link SSLContext} of the TLS endpoints from the configured key and trust stores.
+ */
+public final class TlsContexts {
+
+    private TlsContexts() {
+    }
+
+    /**
+     * @param keyStore           the store with the client certificate, <code>null</code> if the endpoint does not
+     *                           authenticate clients
+     * @param keyStorePassword   the password of the key store and its key
+     * @param trustStore         the store with the trusted certificates, <code>null</code> to use the default
+     *                           trust store of the JVM
+     * @param trustStorePassword the password of the trust store
+     * @return a new context
+     */
+    public static SSLContext create(final File keyStore, final String keyStorePassword,
+                                    final File trustStore, final String trustStorePassword)
+            throws GeneralSecurityException, IOException {
+
+        KeyManager[] keyManagers = null;
+        if (keyStore != null) {
+            final KeyManagerFactory factory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            factory.init(load(keyStore, keyStorePassword), password(keyStorePassword));
+            keyManagers = factory.getKeyManagers();
+        }
+
+        final TrustManagerFactory trustFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustFactory.init(trustStore == null ? null : load(trustStore, trustStorePassword));
+        final TrustManager[] trustManagers = trustFactory.getTrustManagers();
+
+        final SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagers, trustManagers, null);
+        return context;
+    }
+
+    private static KeyStore load(final File file, final String password) throws GeneralSecurityException, IOException {
+        final String name = file.getName().toLowerCase();
+        final KeyStore store = KeyStore.getInstance(name.endsWith(".p12") || name.endsWith(".pfx") ? "PKCS12" : "JKS");
+        try (final InputStream in = new FileInputStream(file)) {
+            store.load(in, password(password));
+        }
+        return store;
+    }
+
+    private static char[] password(final String password) {
+        return password == null ? null : password.toCharArray();
+    }
+}
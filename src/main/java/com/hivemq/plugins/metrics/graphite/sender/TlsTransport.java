@@ -0,0 +1,340 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.plugins.metrics.graphite.sender;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Writes payloads over TLS to an endpoint, e.g. a stunnel or HAProxy in front of Carbon.
+ * <p>
+ * The connection is encrypted with an {@link SSLEngine} of a long lived {@link SSLContext}. The context caches
+ * the sessions of the endpoint, so a reconnect resumes the last session instead of doing a full handshake.
+ * The buffer for the encrypted records is kept across writes and connections, and the records of a payload
+ * are collected in it before they are written to the socket.
+ * <p>
+ * The endpoint never sends data, but TLS 1.3 servers send session tickets and alerts after the handshake.
+ * These are read before every write, so the tickets can be used for resumption and a closed connection is noticed.
+ */
+public class TlsTransport implements Transport {
+
+    private static final int CONNECT_TIMEOUT = 5000;
+    private static final int IO_TIMEOUT = 30000;
+    private static final int CLOSE_TIMEOUT = 1000;
+    private static final int NET_BUFFER_SIZE = 64 * 1024;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final String host;
+    private final int port;
+    private final SSLContext sslContext;
+    private final TokenBucket bucket;
+    private final AddressResolver resolver;
+
+    private SocketChannel channel;
+    private Selector selector;
+    private SSLEngine engine;
+
+    //reused across writes and connections. They are flipped and cleared as Buffer, because JDK 9+ overrides these
+    //methods in ByteBuffer and classes built with it would not run on Java 7 and 8 otherwise.
+    private ByteBuffer netOut = ByteBuffer.allocate(NET_BUFFER_SIZE);
+    private ByteBuffer netIn = ByteBuffer.allocate(NET_BUFFER_SIZE);
+    private ByteBuffer appIn = ByteBuffer.allocate(NET_BUFFER_SIZE);
+
+    /**
+     * @param sslContext the context the connections are created with, it should be shared by all connections
+     *                   to the endpoint to resume sessions
+     * @param bucket     limits the bandwidth of the connection, <code>null</code> for no limit
+     */
+    public TlsTransport(final String host, final int port, final SSLContext sslContext, final TokenBucket bucket) {
+        this(host, port, sslContext, bucket, null);
+    }
+
+    /**
+     * @param sslContext the context the connections are created with, it should be shared by all connections
+     *                   to the endpoint to resume sessions
+     * @param bucket     limits the bandwidth of the connection, <code>null</code> for no limit
+     * @param resolver   caches the address of the host, <code>null</code> to look it up on every connect
+     */
+    public TlsTransport(final String host, final int port, final SSLContext sslContext, final TokenBucket bucket,
+                        final AddressResolver resolver) {
+        this.host = host;
+        this.port = port;
+        this.sslContext = sslContext;
+        this.bucket = bucket;
+        this.resolver = resolver;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        if (isConnected()) {
+            throw new IllegalStateException("Already connected to " + this);
+        }
+        final SocketChannel newChannel = SocketChannel.open();
+        try {
+            newChannel.socket().connect(
+                    resolver == null ? new InetSocketAddress(host, port) : resolver.resolve(host, port),
+                    CONNECT_TIMEOUT);
+            newChannel.configureBlocking(false);
+            channel = newChannel;
+            selector = Selector.open();
+
+            engine = sslContext.createSSLEngine(host, port);
+            engine.setUseClientMode(true);
+            final SSLParameters parameters = engine.getSSLParameters();
+            parameters.setEndpointIdentificationAlgorithm("HTTPS");
+            engine.setSSLParameters(parameters);
+
+            ((Buffer) netOut).clear();
+            ((Buffer) netIn).clear();
+            ((Buffer) appIn).clear();
+            engine.beginHandshake();
+            handshake();
+        } catch (IOException | RuntimeException e) {
+            close();
+            newChannel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        return channel != null && channel.isConnected() && engine != null && !engine.isOutboundDone();
+    }
+
+    @Override
+    public void write(final byte[] payload, final int offset, final int length) throws IOException {
+        readInbound();
+
+        final ByteBuffer app = ByteBuffer.wrap(payload, offset, length);
+        while (app.hasRemaining()) {
+            final SSLEngineResult result = engine.wrap(app, netOut);
+            switch (result.getStatus()) {
+                case OK:
+                    if (netOut.remaining() < engine.getSession().getPacketBufferSize()) {
+                        writeNetOut();
+                    }
+                    break;
+                case BUFFER_OVERFLOW:
+                    if (netOut.position() > 0) {
+                        writeNetOut();
+                    } else {
+                        netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+                    }
+                    break;
+                default:
+                    throw new SSLException("Connection to " + this + " was closed");
+            }
+        }
+        writeNetOut();
+    }
+
+    @Override
+    public void flush() {
+        //records are written to the socket by write
+    }
+
+    SSLSession getSession() {
+        return engine.getSession();
+    }
+
+    private void handshake() throws IOException {
+        SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+        while (status != SSLEngineResult.HandshakeStatus.FINISHED
+                && status != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+            switch (status) {
+                case NEED_WRAP: {
+                    final SSLEngineResult result = engine.wrap(EMPTY, netOut);
+                    if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                        netOut = enlarge(netOut, engine.getSession().getPacketBufferSize());
+                    } else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        throw new SSLException("Handshake with " + this + " failed");
+                    }
+                    writeNetOut();
+                    status = result.getHandshakeStatus();
+                    break;
+                }
+                case NEED_TASK: {
+                    Runnable task;
+                    while ((task = engine.getDelegatedTask()) != null) {
+                        task.run();
+                    }
+                    status = engine.getHandshakeStatus();
+                    break;
+                }
+                default: {
+                    final SSLEngineResult result = unwrap();
+                    if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                        read(true);
+                    } else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        throw new SSLException("Handshake with " + this + " failed");
+                    }
+                    status = result.getHandshakeStatus();
+                }
+            }
+        }
+    }
+
+    /**
+     * Processes the records the endpoint sent since the last write, without waiting for more.
+     */
+    private void readInbound() throws IOException {
+        while (read(false) > 0 || netIn.position() > 0) {
+            final SSLEngineResult result = unwrap();
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                throw new EOFException("Connection was closed by " + this);
+            }
+            if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK
+                    || result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                handshake();
+            }
+            if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW || result.bytesConsumed() == 0) {
+                return;
+            }
+            //the endpoint is not expected to send application data
+            ((Buffer) appIn).clear();
+        }
+    }
+
+    private SSLEngineResult unwrap() throws SSLException {
+        ((Buffer) netIn).flip();
+        try {
+            final SSLEngineResult result = engine.unwrap(netIn, appIn);
+            if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                appIn = enlarge(appIn, engine.getSession().getApplicationBufferSize());
+            }
+            return result;
+        } finally {
+            netIn.compact();
+        }
+    }
+
+    private int read(final boolean wait) throws IOException {
+        if (!netIn.hasRemaining()) {
+            netIn = enlarge(netIn, engine.getSession().getPacketBufferSize());
+        }
+        int read = channel.read(netIn);
+        if (read == 0 && wait) {
+            await(SelectionKey.OP_READ);
+            read = channel.read(netIn);
+        }
+        if (read < 0) {
+            throw new EOFException("Connection was closed by " + this);
+        }
+        return read;
+    }
+
+    private void writeNetOut() throws IOException {
+        ((Buffer) netOut).flip();
+        if (bucket != null && netOut.hasRemaining()) {
+            bucket.acquire(netOut.remaining());
+        }
+        while (netOut.hasRemaining()) {
+            if (channel.write(netOut) == 0) {
+                await(SelectionKey.OP_WRITE);
+            }
+        }
+        ((Buffer) netOut).clear();
+    }
+
+    private void await(final int operation) throws IOException {
+        final SelectionKey key = channel.register(selector, operation);
+        try {
+            if (selector.select(IO_TIMEOUT) == 0) {
+                throw new SocketTimeoutException("Timed out waiting for " + this);
+            }
+        } finally {
+            key.interestOps(0);
+            selector.selectedKeys().clear();
+        }
+    }
+
+    private static ByteBuffer enlarge(final ByteBuffer buffer, final int minimumSize) {
+        final ByteBuffer enlarged = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, minimumSize));
+        ((Buffer) buffer).flip();
+        enlarged.put(buffer);
+        return enlarged;
+    }
+
+    /**
+     * Discards what the endpoint still sends until it closes the connection as well. Closing a socket with
+     * unread data, e.g. a late session ticket, resets the connection and the endpoint may lose the last payload.
+     */
+    private void drain() throws IOException {
+        final long deadline = System.currentTimeMillis() + CLOSE_TIMEOUT;
+        final SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        long remaining;
+        while ((remaining = deadline - System.currentTimeMillis()) > 0) {
+            selector.select(remaining);
+            selector.selectedKeys().clear();
+            ((Buffer) netIn).clear();
+            if (channel.read(netIn) < 0) {
+                break;
+            }
+        }
+        key.cancel();
+        ((Buffer) netIn).clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (engine != null && channel != null && channel.isConnected()) {
+                engine.closeOutbound();
+                try {
+                    ((Buffer) netOut).clear();
+                    engine.wrap(EMPTY, netOut);
+                    writeNetOut();
+                    channel.shutdownOutput();
+                    drain();
+                } catch (IOException e) {
+                    //the connection is closed anyway
+                }
+            }
+            if (selector != null) {
+                selector.close();
+            }
+        } finally {
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+            } finally {
+                channel = null;
+                selector = null;
+                engine = null;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "tls://" + host + ":" + port;
+    }
+}
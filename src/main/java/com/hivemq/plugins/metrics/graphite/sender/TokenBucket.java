@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.plugins.metrics.graphite.sender;
+
+import com.codahale.metrics.Timer;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the bandwidth of the transports which share this bucket.
+ * <p>
+ * The bucket holds up to <code>burst</code> bytes and is refilled with <code>bytesPerSecond</code>.
+ * A write takes its bytes from the bucket and waits if the bucket runs into debt, so a flush is paced
+ * instead of saturating the uplink of the broker. The time spent waiting is recorded in a timer.
+ */
+public class TokenBucket {
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final long bytesPerSecond;
+    private final int burst;
+    private final Timer throttled;
+
+    //guarded by this
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param bytesPerSecond the sustained bandwidth
+     * @param burst          the number of bytes which may be written at once without waiting
+     * @param throttled      records the time writes waited for the bucket
+     */
+    public TokenBucket(final long bytesPerSecond, final int burst, final Timer throttled) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.burst = burst;
+        this.throttled = throttled;
+        this.tokens = burst;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * @return the maximum number of bytes a single write should acquire
+     */
+    public int getBurst() {
+        return burst;
+    }
+
+    /**
+     * Takes the given number of bytes from the bucket and waits until the bucket is out of debt.
+     *
+     * @param bytes the number of bytes which are written next
+     * @throws InterruptedIOException if the sending thread is interrupted while waiting
+     */
+    public void acquire(final int bytes) throws InterruptedIOException {
+        final long waitNanos;
+        synchronized (this) {
+            final long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - lastRefill) * bytesPerSecond / NANOS_PER_SECOND);
+            lastRefill = now;
+            tokens -= bytes;
+            waitNanos = tokens < 0 ? (long) (-tokens * NANOS_PER_SECOND / bytesPerSecond) : 0;
+        }
+        if (waitNanos == 0) {
+            return;
+        }
+
+        throttled.update(waitNanos, TimeUnit.NANOSECONDS);
+        try {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+        }
+    }
+}
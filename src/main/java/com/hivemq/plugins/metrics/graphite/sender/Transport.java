@@ -0,0 +1,39 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.plugins.metrics.graphite.sender;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Writes encoded payloads to an endpoint.
+ * <p>
+ * A transport is only used by the sending thread of its sink.
+ */
+public interface Transport extends Closeable {
+
+    void connect() throws IOException;
+
+    boolean isConnected();
+
+    /**
+     * Writes a payload, which consists of complete lines or messages of the wire format.
+     */
+    void write(byte[] payload, int offset, int length) throws IOException;
+
+    void flush() throws IOException;
+}
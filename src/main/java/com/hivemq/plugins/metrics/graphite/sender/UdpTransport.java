@@ -0,0 +1,135 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.plugins.metrics.graphite.sender;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+
+/**
+ * Writes payloads of line based formats, e.g. StatsD, to a UDP endpoint.
+ * <p>
+ * Payloads are split at line boundaries into datagrams which fit into a typical MTU.
+ */
+public class UdpTransport implements Transport {
+
+    private static final int MAX_DATAGRAM_SIZE = 1432;
+
+    private final String host;
+    private final int port;
+    private final TokenBucket bucket;
+    private final AddressResolver resolver;
+
+    private DatagramSocket socket;
+    private InetSocketAddress address;
+
+    public UdpTransport(final String host, final int port) {
+        this(host, port, null);
+    }
+
+    /**
+     * @param bucket limits the bandwidth of the datagrams, <code>null</code> for no limit
+     */
+    public UdpTransport(final String host, final int port, final TokenBucket bucket) {
+        this(host, port, bucket, null);
+    }
+
+    /**
+     * @param bucket   limits the bandwidth of the datagrams, <code>null</code> for no limit
+     * @param resolver caches the address of the host, <code>null</code> to look it up only on connect
+     */
+    public UdpTransport(final String host, final int port, final TokenBucket bucket, final AddressResolver resolver) {
+        this.host = host;
+        this.port = port;
+        this.bucket = bucket;
+        this.resolver = resolver;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        address = resolve();
+        socket = new DatagramSocket();
+    }
+
+    private InetSocketAddress resolve() throws IOException {
+        if (resolver != null) {
+            return resolver.resolve(host, port);
+        }
+        final InetSocketAddress resolved = new InetSocketAddress(host, port);
+        if (resolved.isUnresolved()) {
+            throw new IOException("Unable to resolve " + host);
+        }
+        return resolved;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return socket != null && !socket.isClosed();
+    }
+
+    @Override
+    public void write(final byte[] payload, final int offset, final int length) throws IOException {
+        if (resolver != null) {
+            //there is no reconnect which would pick up a changed address, the cached lookup is cheap
+            address = resolver.resolve(host, port);
+        }
+        final int end = offset + length;
+        int start = offset;
+        while (start < end) {
+            int split = Math.min(end, start + MAX_DATAGRAM_SIZE);
+            if (split < end) {
+                //cut after the last complete line which fits into the datagram
+                int lineEnd = split;
+                while (lineEnd > start && payload[lineEnd - 1] != '\n') {
+                    lineEnd--;
+                }
+                if (lineEnd > start) {
+                    split = lineEnd;
+                } else {
+                    //a single line is longer than a datagram, send it anyway
+                    while (split < end && payload[split - 1] != '\n') {
+                        split++;
+                    }
+                }
+            }
+            if (bucket != null) {
+                bucket.acquire(split - start);
+            }
+            socket.send(new DatagramPacket(payload, start, split - start, address));
+            start = split;
+        }
+    }
+
+    @Override
+    public void flush() {
+        //datagrams are sent immediately
+    }
+
+    @Override
+    public void close() {
+        if (socket != null) {
+            socket.close();
+            socket = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "udp://" + host + ":" + port;
+    }
+}
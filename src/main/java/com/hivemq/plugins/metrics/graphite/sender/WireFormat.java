@@ -0,0 +1,84 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.plugins.metrics.graphite.sender;
+
+/**
+ * The wire formats a sink can be configured with.
+ */
+public enum WireFormat {
+
+    PLAINTEXT("plaintext") {
+        @Override
+        public SnapshotEncoder newEncoder(final int batchSize, final SeriesNames seriesNames) {
+            return new PlaintextEncoder(seriesNames);
+        }
+    },
+    PICKLE("pickle") {
+        @Override
+        public SnapshotEncoder newEncoder(final int batchSize, final SeriesNames seriesNames) {
+            return new PickleEncoder(batchSize, seriesNames);
+        }
+    },
+    PROTOBUF("protobuf") {
+        @Override
+        public SnapshotEncoder newEncoder(final int batchSize, final SeriesNames seriesNames) {
+            return new ProtobufEncoder(batchSize, seriesNames);
+        }
+    },
+    STATSD("statsd") {
+        @Override
+        public SnapshotEncoder newEncoder(final int batchSize, final SeriesNames seriesNames) {
+            return new StatsdEncoder();
+        }
+    },
+    INFLUX("influx") {
+        @Override
+        public SnapshotEncoder newEncoder(final int batchSize, final SeriesNames seriesNames) {
+            return new InfluxLineEncoder();
+        }
+    };
+
+    private final String name;
+
+    WireFormat(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * @param batchSize   the number of datapoints per message, only used by batching formats
+     * @param seriesNames the naming of the series, only used by the Graphite formats
+     * @return a new encoder for this format
+     */
+    public abstract SnapshotEncoder newEncoder(int batchSize, SeriesNames seriesNames);
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param name the name of the format in the configuration file
+     * @return the format or <code>null</code> if there is no format with this name
+     */
+    public static WireFormat fromName(final String name) {
+        for (WireFormat format : values()) {
+            if (format.name.equalsIgnoreCase(name.trim())) {
+                return format;
+            }
+        }
+        return null;
+    }
+}
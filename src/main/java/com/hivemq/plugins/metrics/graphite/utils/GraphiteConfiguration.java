@@ -16,29 +16,20 @@
 package com.hivemq.plugins.metrics.graphite.utils;
 
 import com.hivemq.spi.config.SystemInformation;
-import com.hivemq.spi.exceptions.UnrecoverableException;
 import com.hivemq.spi.services.PluginExecutorService;
 import com.hivemq.spi.services.configuration.ValueChangedCallback;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
-import java.util.Properties;
 
 /**
- * This reads a property file and provides some utility methods for working with {@link Properties}
+ * This reads a property file and provides the current settings as {@link GraphiteSettings}
  *
  * @author Christoph Schäbel
  */
 @Singleton
 public class GraphiteConfiguration extends ReloadingPropertiesReader {
-    private static final Logger log = LoggerFactory.getLogger(GraphiteConfiguration.class);
-
-    private static final String DEFAULT_VALUE_PREFIX = "";
-    private static final String DEFAULT_VALUE_BATCH_MODE = "false";
-    private static final String DEFAULT_VALUE_BATCH_SIZE = "3";
-    private static final String DEFAULT_VALUE_REPORTING_INTERVAL = "60";
+    private final SystemInformation systemInformation;
 
     private RestartListener listener;
 
@@ -47,6 +38,7 @@ public class GraphiteConfiguration extends ReloadingPropertiesReader {
                                  final SystemInformation systemInformation,
                                  final EnvironmentReader environmentReader) {
         super(pluginExecutorService, systemInformation, environmentReader);
+        this.systemInformation = systemInformation;
 
         final ValueChangedCallback callback = new ValueChangedCallback() {
             @Override
@@ -63,55 +55,50 @@ public class GraphiteConfiguration extends ReloadingPropertiesReader {
         addCallback(ReloadingPropertiesReader.BATCH_MODE_KEY, callback);
         addCallback(ReloadingPropertiesReader.REPORTING_INTERVAL_KEY, callback);
         addCallback(ReloadingPropertiesReader.PREFIX_KEY, callback);
+        addCallback(ReloadingPropertiesReader.SINKS_KEY, callback);
+        addCallback(ReloadingPropertiesReader.SINK_QUEUE_SIZE_KEY, callback);
+        addCallback(ReloadingPropertiesReader.SINK_KEY_PREFIX + "*", callback);
+        addCallback(ReloadingPropertiesReader.TAGGED_SERIES_KEY, callback);
+        addCallback(ReloadingPropertiesReader.TAG_NODE_KEY, callback);
+        addCallback(ReloadingPropertiesReader.TAG_CLUSTER_KEY, callback);
+        addCallback(ReloadingPropertiesReader.TAG_RULE_KEY_PREFIX + "*", callback);
+        addCallback(ReloadingPropertiesReader.HTTP_ENDPOINT_KEY, callback);
+        addCallback(ReloadingPropertiesReader.HTTP_BIND_ADDRESS_KEY, callback);
+        addCallback(ReloadingPropertiesReader.HTTP_PORT_KEY, callback);
+        addCallback(ReloadingPropertiesReader.GAUGE_TIMEOUT_KEY, callback);
+        addCallback(ReloadingPropertiesReader.GAUGE_MAX_STALENESS_KEY, callback);
+        addCallback(ReloadingPropertiesReader.GAUGE_MAX_OVERRUNS_KEY, callback);
+        addCallback(ReloadingPropertiesReader.SLOW_GAUGE_INTERVAL_KEY, callback);
+        addCallback(ReloadingPropertiesReader.REPORTING_PARTITIONS_KEY, callback);
+        addCallback(ReloadingPropertiesReader.HIGH_PRIORITY_KEY, callback);
+        addCallback(ReloadingPropertiesReader.LOW_PRIORITY_KEY, callback);
+        addCallback(ReloadingPropertiesReader.BANDWIDTH_LIMIT_KEY, callback);
+        addCallback(ReloadingPropertiesReader.BANDWIDTH_BURST_KEY, callback);
+        addCallback(ReloadingPropertiesReader.BATCH_FORMAT_KEY, callback);
+        addCallback(ReloadingPropertiesReader.TLS_KEY, callback);
+        addCallback(ReloadingPropertiesReader.TLS_KEY_STORE_KEY, callback);
+        addCallback(ReloadingPropertiesReader.TLS_KEY_STORE_PASSWORD_KEY, callback);
+        addCallback(ReloadingPropertiesReader.TLS_TRUST_STORE_KEY, callback);
+        addCallback(ReloadingPropertiesReader.TLS_TRUST_STORE_PASSWORD_KEY, callback);
+        addCallback(ReloadingPropertiesReader.DNS_CACHE_TTL_KEY, callback);
+        addCallback(ReloadingPropertiesReader.SAMPLED_GAUGES_KEY, callback);
+        addCallback(ReloadingPropertiesReader.GAUGE_SAMPLE_INTERVAL_KEY, callback);
+        addCallback(ReloadingPropertiesReader.RATE_COUNTERS_KEY, callback);
+        addCallback(ReloadingPropertiesReader.RATE_COUNTER_DELTAS_KEY, callback);
+        addCallback(ReloadingPropertiesReader.RATE_COUNTERS_MONOTONIC_KEY, callback);
+        addCallback(ReloadingPropertiesReader.TOPIC_COUNTER_KEY_PREFIX + "*", callback);
+        addCallback(ReloadingPropertiesReader.HISTORY_HOURS_KEY, callback);
+        addCallback(ReloadingPropertiesReader.HISTORY_MAX_MEGABYTES_KEY, callback);
     }
 
-    public boolean isBatchMode() {
-        return Boolean.parseBoolean(properties.getProperty(ReloadingPropertiesReader.BATCH_MODE_KEY, DEFAULT_VALUE_BATCH_MODE));
-    }
-
-    public String getHost() {
-        final String strHost = properties.getProperty(ReloadingPropertiesReader.HOST_KEY);
-        if (strHost == null) {
-            log.error("Host configuration for Graphite Plugin is missing. Shutting down HiveMQ");
-            throw new UnrecoverableException(false);
-        }
-        return strHost;
-    }
-
-    public int getPort() {
-        final String strPort = properties.getProperty(ReloadingPropertiesReader.PORT_KEY);
-        if (strPort == null) {
-            log.error("Port configuration for Graphite Plugin is missing. Shutting down HiveMQ");
-            throw new UnrecoverableException(false);
-        }
-        try {
-            return Integer.parseInt(strPort);
-        } catch (Exception e) {
-            log.error("Port configuration for Graphite Plugin could not be parsed. Shutting down HiveMQ", e);
-            throw new UnrecoverableException(false);
-        }
-    }
-
-    public int getBatchSize() {
-        try {
-            return Integer.parseInt(properties.getProperty(ReloadingPropertiesReader.BATCH_SIZE_KEY, DEFAULT_VALUE_BATCH_SIZE));
-        } catch (Exception e) {
-            log.error("Error while parsing configuration of batchSize for Graphite Plugin. Shutting down HiveMQ", e);
-            throw new UnrecoverableException(false);
-        }
-    }
-
-    public int getReportingInterval() {
-        try {
-            return Integer.parseInt(properties.getProperty(ReloadingPropertiesReader.REPORTING_INTERVAL_KEY, DEFAULT_VALUE_REPORTING_INTERVAL));
-        } catch (Exception e) {
-            log.error("Error while parsing configuration of reportingInterval for Graphite Plugin. Shutting down HiveMQ", e);
-            throw new UnrecoverableException(false);
-        }
-    }
-
-    public String getPrefix() {
-        return properties.getProperty(ReloadingPropertiesReader.PREFIX_KEY, DEFAULT_VALUE_PREFIX);
+    /**
+     * The reporting is set up from many settings one after the other. Reading them from a snapshot makes sure
+     * they are all from the same version of the configuration file, even if it is reloaded in the meantime.
+     *
+     * @return the current settings, which do not change on reload
+     */
+    public GraphiteSettings snapshot() {
+        return new GraphiteSettings(properties, systemInformation.getConfigFolder());
     }
 
     @Override
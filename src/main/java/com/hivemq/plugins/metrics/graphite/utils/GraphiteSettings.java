@@ -0,0 +1,420 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.plugins.metrics.graphite.utils;
+
+import com.hivemq.plugins.metrics.graphite.sender.TaggedSeriesNames;
+import com.hivemq.plugins.metrics.graphite.sender.WireFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * The settings of the plugin as they were configured at one point in time, see
+ * {@link GraphiteConfiguration#snapshot()}. The settings are immutable, a reload of the configuration file
+ * creates new settings. They are validated as a whole when they are created, so the getters do not fail.
+ */
+public final class GraphiteSettings {
+
+    private static final Logger log = LoggerFactory.getLogger(GraphiteSettings.class);
+
+    private static final String DEFAULT_VALUE_PREFIX = "";
+    private static final String DEFAULT_VALUE_BATCH_MODE = "false";
+    private static final String DEFAULT_VALUE_BATCH_SIZE = "3";
+    private static final String DEFAULT_VALUE_REPORTING_INTERVAL = "60";
+    private static final String DEFAULT_VALUE_SINK_QUEUE_SIZE = "8";
+    private static final String DEFAULT_VALUE_SINK_FORMAT = "plaintext";
+    private static final String DEFAULT_VALUE_TAGGED_SERIES = "false";
+    private static final String DEFAULT_VALUE_HTTP_ENDPOINT = "false";
+    private static final String DEFAULT_VALUE_HTTP_BIND_ADDRESS = "127.0.0.1";
+    private static final String DEFAULT_VALUE_HTTP_PORT = "9109";
+    private static final String DEFAULT_VALUE_GAUGE_TIMEOUT = "1000";
+    private static final String DEFAULT_VALUE_GAUGE_MAX_STALENESS = "300";
+    private static final String DEFAULT_VALUE_GAUGE_MAX_OVERRUNS = "3";
+    private static final String DEFAULT_VALUE_SLOW_GAUGE_INTERVAL = "300";
+    private static final String DEFAULT_VALUE_REPORTING_PARTITIONS = "1";
+    private static final String DEFAULT_VALUE_BANDWIDTH_LIMIT = "0";
+    private static final String DEFAULT_VALUE_BANDWIDTH_BURST = "65536";
+    private static final String DEFAULT_VALUE_BATCH_FORMAT = "pickle";
+    private static final String DEFAULT_VALUE_TLS = "false";
+    private static final String DEFAULT_VALUE_DNS_CACHE_TTL = "60";
+    private static final String DEFAULT_VALUE_GAUGE_SAMPLE_INTERVAL = "1000";
+    private static final String DEFAULT_VALUE_RATE_COUNTER_DELTAS = "false";
+    private static final String DEFAULT_VALUE_RATE_COUNTERS_MONOTONIC = "false";
+    private static final String DEFAULT_VALUE_HISTORY_HOURS = "0";
+    private static final String DEFAULT_VALUE_HISTORY_MAX_MEGABYTES = "64";
+
+    private final Properties properties = new Properties();
+    private final File configFolder;
+
+    /**
+     * @param properties   the configured properties, they are copied
+     * @param configFolder the folder relative paths are resolved against
+     * @throws IllegalArgumentException if any setting is invalid, the invalid settings are logged
+     */
+    public GraphiteSettings(final Properties properties, final File configFolder) {
+        if (!ReloadingPropertiesReader.validateProperties(properties)) {
+            throw new IllegalArgumentException("The configuration of the Graphite Plugin contains errors");
+        }
+        this.properties.putAll(properties);
+        this.configFolder = configFolder;
+    }
+
+    public boolean isBatchMode() {
+        return Boolean.parseBoolean(properties.getProperty(ReloadingPropertiesReader.BATCH_MODE_KEY, DEFAULT_VALUE_BATCH_MODE));
+    }
+
+    public String getHost() {
+        return properties.getProperty(ReloadingPropertiesReader.HOST_KEY);
+    }
+
+    public int getPort() {
+        return Integer.parseInt(properties.getProperty(ReloadingPropertiesReader.PORT_KEY));
+    }
+
+    public int getBatchSize() {
+        return getInteger(ReloadingPropertiesReader.BATCH_SIZE_KEY, DEFAULT_VALUE_BATCH_SIZE);
+    }
+
+    /**
+     * @return the format the Graphite endpoint is sent in if batch mode is enabled, pickle or protobuf
+     */
+    public WireFormat getBatchFormat() {
+        return WireFormat.fromName(properties.getProperty(ReloadingPropertiesReader.BATCH_FORMAT_KEY, DEFAULT_VALUE_BATCH_FORMAT));
+    }
+
+    public int getReportingInterval() {
+        return getInteger(ReloadingPropertiesReader.REPORTING_INTERVAL_KEY, DEFAULT_VALUE_REPORTING_INTERVAL);
+    }
+
+    public String getPrefix() {
+        return properties.getProperty(ReloadingPropertiesReader.PREFIX_KEY, DEFAULT_VALUE_PREFIX);
+    }
+
+    /**
+     * @return the number of encoded ticks each sink buffers before it drops the oldest
+     */
+    public int getSinkQueueSize() {
+        return getInteger(ReloadingPropertiesReader.SINK_QUEUE_SIZE_KEY, DEFAULT_VALUE_SINK_QUEUE_SIZE);
+    }
+
+    /**
+     * @return the names of the additional sinks the metrics are sent to besides the Graphite host
+     */
+    public List<String> getSinks() {
+        return ReloadingPropertiesReader.splitList(properties.getProperty(ReloadingPropertiesReader.SINKS_KEY));
+    }
+
+    public String getSinkHost(final String sink) {
+        return properties.getProperty(sinkKey(sink, ReloadingPropertiesReader.SINK_HOST_SUFFIX));
+    }
+
+    public int getSinkPort(final String sink) {
+        return Integer.parseInt(properties.getProperty(sinkKey(sink, ReloadingPropertiesReader.SINK_PORT_SUFFIX)));
+    }
+
+    public WireFormat getSinkFormat(final String sink) {
+        return WireFormat.fromName(properties.getProperty(sinkKey(sink, ReloadingPropertiesReader.SINK_FORMAT_SUFFIX), DEFAULT_VALUE_SINK_FORMAT));
+    }
+
+    /**
+     * @return <code>true</code> if the sink is sent to via UDP, which is the default for StatsD
+     */
+    public boolean isSinkUdp(final String sink) {
+        final String protocol = properties.getProperty(sinkKey(sink, ReloadingPropertiesReader.SINK_PROTOCOL_SUFFIX));
+        if (protocol == null) {
+            return getSinkFormat(sink) == WireFormat.STATSD;
+        }
+        return protocol.equals("udp");
+    }
+
+    /**
+     * @return <code>true</code> if the sink is sent to via TLS
+     */
+    public boolean isSinkTls(final String sink) {
+        return "tls".equals(properties.getProperty(sinkKey(sink, ReloadingPropertiesReader.SINK_PROTOCOL_SUFFIX)));
+    }
+
+    private static String sinkKey(final String sink, final String suffix) {
+        return ReloadingPropertiesReader.SINK_KEY_PREFIX + sink + suffix;
+    }
+
+    /**
+     * @return <code>true</code> if Graphite 1.1 tagged series (<code>name;tag=value</code>) should be sent
+     */
+    public boolean isTaggedSeries() {
+        return Boolean.parseBoolean(properties.getProperty(ReloadingPropertiesReader.TAGGED_SERIES_KEY, DEFAULT_VALUE_TAGGED_SERIES));
+    }
+
+    /**
+     * @return the value of the node tag, defaults to the hostname of this machine
+     */
+    public String getTagNode() {
+        final String node = properties.getProperty(ReloadingPropertiesReader.TAG_NODE_KEY);
+        if (node != null && !node.trim().isEmpty()) {
+            return node.trim();
+        }
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            log.warn("Unable to determine the hostname for the node tag, please configure tagNode");
+            return "unknown";
+        }
+    }
+
+    /**
+     * @return the value of the cluster tag or <code>null</code> if the tag is not configured
+     */
+    public String getTagCluster() {
+        final String cluster = properties.getProperty(ReloadingPropertiesReader.TAG_CLUSTER_KEY);
+        if (cluster == null || cluster.trim().isEmpty()) {
+            return null;
+        }
+        return cluster.trim();
+    }
+
+    /**
+     * @return the tag rules, ordered by tag name
+     */
+    public List<TaggedSeriesNames.TagRule> getTagRules() {
+        final Map<String, String> patterns = new TreeMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(ReloadingPropertiesReader.TAG_RULE_KEY_PREFIX)) {
+                patterns.put(key.substring(ReloadingPropertiesReader.TAG_RULE_KEY_PREFIX.length()), properties.getProperty(key));
+            }
+        }
+        final List<TaggedSeriesNames.TagRule> rules = new ArrayList<>();
+        for (Map.Entry<String, String> entry : patterns.entrySet()) {
+            rules.add(new TaggedSeriesNames.TagRule(entry.getKey(), Pattern.compile(entry.getValue())));
+        }
+        return rules;
+    }
+
+    /**
+     * @return the names of the topic counters and their MQTT topic filters, ordered by name
+     */
+    public Map<String, String> getTopicCounters() {
+        final Map<String, String> filters = new TreeMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(ReloadingPropertiesReader.TOPIC_COUNTER_KEY_PREFIX)) {
+                filters.put(key.substring(ReloadingPropertiesReader.TOPIC_COUNTER_KEY_PREFIX.length()),
+                        properties.getProperty(key));
+            }
+        }
+        return filters;
+    }
+
+    /**
+     * @return <code>true</code> if the last snapshot should be served on a local HTTP endpoint
+     */
+    public boolean isHttpEndpoint() {
+        return Boolean.parseBoolean(properties.getProperty(ReloadingPropertiesReader.HTTP_ENDPOINT_KEY, DEFAULT_VALUE_HTTP_ENDPOINT));
+    }
+
+    public String getHttpBindAddress() {
+        return properties.getProperty(ReloadingPropertiesReader.HTTP_BIND_ADDRESS_KEY, DEFAULT_VALUE_HTTP_BIND_ADDRESS);
+    }
+
+    public int getHttpPort() {
+        return getInteger(ReloadingPropertiesReader.HTTP_PORT_KEY, DEFAULT_VALUE_HTTP_PORT);
+    }
+
+    /**
+     * @return the time in milliseconds a gauge may take to evaluate, 0 if gauges are evaluated inline
+     */
+    public int getGaugeTimeout() {
+        return getInteger(ReloadingPropertiesReader.GAUGE_TIMEOUT_KEY, DEFAULT_VALUE_GAUGE_TIMEOUT);
+    }
+
+    /**
+     * @return the maximum age in seconds of a cached gauge value which is reported instead of a timed out gauge
+     */
+    public int getGaugeMaxStaleness() {
+        return getInteger(ReloadingPropertiesReader.GAUGE_MAX_STALENESS_KEY, DEFAULT_VALUE_GAUGE_MAX_STALENESS);
+    }
+
+    /**
+     * @return the number of consecutive timeouts after which a gauge is moved to the slow interval
+     */
+    public int getGaugeMaxOverruns() {
+        return getInteger(ReloadingPropertiesReader.GAUGE_MAX_OVERRUNS_KEY, DEFAULT_VALUE_GAUGE_MAX_OVERRUNS);
+    }
+
+    /**
+     * @return the interval in seconds in which slow gauges are refreshed in the background
+     */
+    public int getSlowGaugeInterval() {
+        return getInteger(ReloadingPropertiesReader.SLOW_GAUGE_INTERVAL_KEY, DEFAULT_VALUE_SLOW_GAUGE_INTERVAL);
+    }
+
+    /**
+     * @return the pattern of the gauge names which are sampled within the reporting interval,
+     * <code>null</code> if not configured
+     */
+    public Pattern getSampledGauges() {
+        return getPattern(ReloadingPropertiesReader.SAMPLED_GAUGES_KEY);
+    }
+
+    /**
+     * @return the interval in milliseconds in which the sampled gauges are read
+     */
+    public int getGaugeSampleInterval() {
+        return getInteger(ReloadingPropertiesReader.GAUGE_SAMPLE_INTERVAL_KEY, DEFAULT_VALUE_GAUGE_SAMPLE_INTERVAL);
+    }
+
+    /**
+     * @return the pattern of the counter names which are sent as their change instead of their count,
+     * <code>null</code> if not configured
+     */
+    public Pattern getRateCounters() {
+        return getPattern(ReloadingPropertiesReader.RATE_COUNTERS_KEY);
+    }
+
+    /**
+     * @return <code>true</code> if the change of the rate counters is sent per interval instead of per second
+     */
+    public boolean isRateCounterDeltas() {
+        return Boolean.parseBoolean(properties.getProperty(ReloadingPropertiesReader.RATE_COUNTER_DELTAS_KEY,
+                DEFAULT_VALUE_RATE_COUNTER_DELTAS));
+    }
+
+    /**
+     * @return <code>true</code> if the rate counters only increase, so a lower count than in the last interval
+     * is a reset and not a negative change
+     */
+    public boolean isRateCountersMonotonic() {
+        return Boolean.parseBoolean(properties.getProperty(ReloadingPropertiesReader.RATE_COUNTERS_MONOTONIC_KEY,
+                DEFAULT_VALUE_RATE_COUNTERS_MONOTONIC));
+    }
+
+    /**
+     * @return the number of partitions the metrics are split into, one partition is reported per sub-tick
+     */
+    public int getReportingPartitions() {
+        return getInteger(ReloadingPropertiesReader.REPORTING_PARTITIONS_KEY, DEFAULT_VALUE_REPORTING_PARTITIONS);
+    }
+
+    /**
+     * @return the pattern of the metric names which are sent first, <code>null</code> if not configured
+     */
+    public Pattern getHighPriorityMetrics() {
+        return getPattern(ReloadingPropertiesReader.HIGH_PRIORITY_KEY);
+    }
+
+    /**
+     * @return the pattern of the metric names which are shed first, <code>null</code> if not configured
+     */
+    public Pattern getLowPriorityMetrics() {
+        return getPattern(ReloadingPropertiesReader.LOW_PRIORITY_KEY);
+    }
+
+    /**
+     * @return the bandwidth in bytes per second all endpoints share, 0 if the bandwidth is not limited
+     */
+    public int getBandwidthLimit() {
+        return getInteger(ReloadingPropertiesReader.BANDWIDTH_LIMIT_KEY, DEFAULT_VALUE_BANDWIDTH_LIMIT);
+    }
+
+    /**
+     * @return the number of bytes which may be sent at once before the bandwidth limit applies
+     */
+    public int getBandwidthBurst() {
+        return getInteger(ReloadingPropertiesReader.BANDWIDTH_BURST_KEY, DEFAULT_VALUE_BANDWIDTH_BURST);
+    }
+
+    /**
+     * @return the time in seconds after which the addresses of the endpoints are looked up again,
+     * 0 if they are looked up on every connect
+     */
+    public int getDnsCacheTtl() {
+        return getInteger(ReloadingPropertiesReader.DNS_CACHE_TTL_KEY, DEFAULT_VALUE_DNS_CACHE_TTL);
+    }
+
+    /**
+     * @return the hours of reported datapoints which are kept in memory, 0 if no history is kept
+     */
+    public int getHistoryHours() {
+        return getInteger(ReloadingPropertiesReader.HISTORY_HOURS_KEY, DEFAULT_VALUE_HISTORY_HOURS);
+    }
+
+    /**
+     * @return the memory in megabytes the kept datapoints may use
+     */
+    public int getHistoryMaxMegabytes() {
+        return getInteger(ReloadingPropertiesReader.HISTORY_MAX_MEGABYTES_KEY, DEFAULT_VALUE_HISTORY_MAX_MEGABYTES);
+    }
+
+    /**
+     * @return <code>true</code> if the Graphite endpoint configured with host and port is sent to via TLS
+     */
+    public boolean isTls() {
+        return Boolean.parseBoolean(properties.getProperty(ReloadingPropertiesReader.TLS_KEY, DEFAULT_VALUE_TLS));
+    }
+
+    /**
+     * @return the key store with the client certificate for TLS endpoints or <code>null</code> if not configured
+     */
+    public File getTlsKeyStore() {
+        return getFile(ReloadingPropertiesReader.TLS_KEY_STORE_KEY);
+    }
+
+    public String getTlsKeyStorePassword() {
+        return properties.getProperty(ReloadingPropertiesReader.TLS_KEY_STORE_PASSWORD_KEY);
+    }
+
+    /**
+     * @return the trust store for TLS endpoints or <code>null</code> if the trust store of the JVM is used
+     */
+    public File getTlsTrustStore() {
+        return getFile(ReloadingPropertiesReader.TLS_TRUST_STORE_KEY);
+    }
+
+    public String getTlsTrustStorePassword() {
+        return properties.getProperty(ReloadingPropertiesReader.TLS_TRUST_STORE_PASSWORD_KEY);
+    }
+
+    /**
+     * Relative paths are resolved against the config folder of HiveMQ.
+     */
+    private File getFile(final String key) {
+        final String path = properties.getProperty(key);
+        if (path == null || path.trim().isEmpty()) {
+            return null;
+        }
+        final File file = new File(path.trim());
+        if (file.isAbsolute()) {
+            return file;
+        }
+        return new File(configFolder, path.trim());
+    }
+
+    private Pattern getPattern(final String key) {
+        final String regex = properties.getProperty(key);
+        return regex == null ? null : Pattern.compile(regex);
+    }
+
+    private int getInteger(final String key, final String defaultValue) {
+        return Integer.parseInt(properties.getProperty(key, defaultValue));
+    }
+}
@@ -20,6 +20,7 @@ import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
 import com.google.common.collect.MapDifference;
 import com.google.common.collect.Maps;
+import com.hivemq.plugins.metrics.graphite.sender.WireFormat;
 import com.hivemq.spi.annotations.NotNull;
 import com.hivemq.spi.config.SystemInformation;
 import com.hivemq.spi.services.PluginExecutorService;
@@ -35,6 +36,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * @author Christoph Schäbel
@@ -47,18 +50,65 @@ public abstract class ReloadingPropertiesReader {
     static final String BATCH_SIZE_KEY = "batchSize";
     static final String REPORTING_INTERVAL_KEY = "reportingInterval";
     static final String PREFIX_KEY = "prefix";
+    static final String SINKS_KEY = "sinks";
+    static final String SINK_QUEUE_SIZE_KEY = "sinkQueueSize";
+    static final String SINK_KEY_PREFIX = "sink.";
+    static final String SINK_HOST_SUFFIX = ".host";
+    static final String SINK_PORT_SUFFIX = ".port";
+    static final String SINK_FORMAT_SUFFIX = ".format";
+    static final String SINK_PROTOCOL_SUFFIX = ".protocol";
+    static final String TAGGED_SERIES_KEY = "taggedSeries";
+    static final String TAG_NODE_KEY = "tagNode";
+    static final String TAG_CLUSTER_KEY = "tagCluster";
+    static final String TAG_RULE_KEY_PREFIX = "tagRule.";
+    static final String HTTP_ENDPOINT_KEY = "httpEndpoint";
+    static final String HTTP_BIND_ADDRESS_KEY = "httpBindAddress";
+    static final String HTTP_PORT_KEY = "httpPort";
+    static final String GAUGE_TIMEOUT_KEY = "gaugeTimeout";
+    static final String GAUGE_MAX_STALENESS_KEY = "gaugeMaxStaleness";
+    static final String GAUGE_MAX_OVERRUNS_KEY = "gaugeMaxOverruns";
+    static final String SLOW_GAUGE_INTERVAL_KEY = "slowGaugeInterval";
+    static final String REPORTING_PARTITIONS_KEY = "reportingPartitions";
+    static final String HIGH_PRIORITY_KEY = "highPriorityMetrics";
+    static final String LOW_PRIORITY_KEY = "lowPriorityMetrics";
+    static final String BANDWIDTH_LIMIT_KEY = "bandwidthLimit";
+    static final String BANDWIDTH_BURST_KEY = "bandwidthBurst";
+    static final String BATCH_FORMAT_KEY = "batchFormat";
+    static final String TLS_KEY = "tls";
+    static final String TLS_KEY_STORE_KEY = "tlsKeyStore";
+    static final String TLS_KEY_STORE_PASSWORD_KEY = "tlsKeyStorePassword";
+    static final String TLS_TRUST_STORE_KEY = "tlsTrustStore";
+    static final String TLS_TRUST_STORE_PASSWORD_KEY = "tlsTrustStorePassword";
+    static final String DNS_CACHE_TTL_KEY = "dnsCacheTtl";
+    static final String SAMPLED_GAUGES_KEY = "sampledGauges";
+    static final String GAUGE_SAMPLE_INTERVAL_KEY = "gaugeSampleInterval";
+    static final String RATE_COUNTERS_KEY = "rateCounters";
+    static final String RATE_COUNTER_DELTAS_KEY = "rateCounterDeltas";
+    static final String RATE_COUNTERS_MONOTONIC_KEY = "rateCountersMonotonic";
+    static final String TOPIC_COUNTER_KEY_PREFIX = "topicCounter.";
+    static final String HISTORY_HOURS_KEY = "historyHours";
+    static final String HISTORY_MAX_MEGABYTES_KEY = "historyMaxMegabytes";
 
     private static final Logger log = LoggerFactory.getLogger(GraphiteConfiguration.class);
     private static final String ENV_VARIABLES_PREFIX = "HIVEMQ_GRAPHITE_";
     private static final String[] PROP_KEYS = new String[]{
-            HOST_KEY, PORT_KEY, BATCH_MODE_KEY, BATCH_SIZE_KEY, REPORTING_INTERVAL_KEY, PREFIX_KEY
+            HOST_KEY, PORT_KEY, BATCH_MODE_KEY, BATCH_SIZE_KEY, REPORTING_INTERVAL_KEY, PREFIX_KEY,
+            SINKS_KEY, SINK_QUEUE_SIZE_KEY, TAGGED_SERIES_KEY, TAG_NODE_KEY, TAG_CLUSTER_KEY,
+            HTTP_ENDPOINT_KEY, HTTP_BIND_ADDRESS_KEY, HTTP_PORT_KEY,
+            GAUGE_TIMEOUT_KEY, GAUGE_MAX_STALENESS_KEY, GAUGE_MAX_OVERRUNS_KEY, SLOW_GAUGE_INTERVAL_KEY,
+            REPORTING_PARTITIONS_KEY, HIGH_PRIORITY_KEY, LOW_PRIORITY_KEY, BANDWIDTH_LIMIT_KEY, BANDWIDTH_BURST_KEY,
+            BATCH_FORMAT_KEY, TLS_KEY, TLS_KEY_STORE_KEY, TLS_KEY_STORE_PASSWORD_KEY, TLS_TRUST_STORE_KEY,
+            TLS_TRUST_STORE_PASSWORD_KEY, DNS_CACHE_TTL_KEY, SAMPLED_GAUGES_KEY, GAUGE_SAMPLE_INTERVAL_KEY,
+            RATE_COUNTERS_KEY, RATE_COUNTER_DELTAS_KEY, RATE_COUNTERS_MONOTONIC_KEY, HISTORY_HOURS_KEY,
+            HISTORY_MAX_MEGABYTES_KEY
     };
 
 
     private final PluginExecutorService pluginExecutorService;
     private final SystemInformation systemInformation;
     private final EnvironmentReader environmentReader;
-    protected Properties properties;
+    //replaced as a whole on reload, so readers see either all old or all new values
+    protected volatile Properties properties;
     protected Map<String, List<ValueChangedCallback<String>>> callbacks = Maps.newHashMap();
     private File file;
 
@@ -76,7 +126,7 @@ public abstract class ReloadingPropertiesReader {
         file = new File(systemInformation.getConfigFolder() + "/" + getFilename());
 
         try {
-            loadProperties();
+            properties = loadProperties();
         } catch (IOException e) {
             log.error("Not able to load configuration file {}", file.getAbsolutePath());
             properties = new Properties();
@@ -94,35 +144,48 @@ public abstract class ReloadingPropertiesReader {
     public abstract String getFilename();
 
     /**
-     * Reloads the specified .properties file
+     * Reloads the specified .properties file.
+     * <p>
+     * The new values are loaded and validated completely before they replace the old values in one step,
+     * so the old values stay in effect if any new value is invalid. Afterwards every callback of the changed
+     * properties is called once, even if it is registered for several of them.
      */
     void reload() {
 
-        final Properties oldProperties = (Properties) properties.clone(); //deep copies are needed
-        final Map<String, String> oldValues = getCurrentValues();
-
+        final Properties newProperties;
         try {
-            loadProperties();
-
-            final Map<String, String> newValues = getCurrentValues();
-
-            //test whether currentValues makes sense, if not rollback to the old values
-            if (validateProperties(properties)) {
-                logChanges(oldValues, newValues);
-            } else {
-                //ignore the new values and use old
-                log.warn("New values in the configurationFile are ignored, because they contain errors");
-                properties = oldProperties;
-            }
+            newProperties = loadProperties();
         } catch (IOException e) {
             log.debug("Not able to reload configuration file {}", this.file.getAbsolutePath());
+            return;
+        }
+
+        //test whether the new values make sense, if not keep the old values
+        if (!validateProperties(newProperties)) {
+            log.warn("New values in the configurationFile are ignored, because they contain errors");
+            return;
         }
+
+        final Map<String, String> oldValues = getValues(properties);
+        properties = newProperties;
+        logChanges(oldValues, getValues(newProperties));
     }
 
-    private boolean validateProperties(final Properties newProperties) {
+    /**
+     * Logs every invalid value.
+     *
+     * @return <code>true</code> if all values are valid
+     */
+    static boolean validateProperties(final Properties newProperties) {
 
         Boolean ret = true;
 
+        final String host = newProperties.getProperty(HOST_KEY);
+        if (host == null || host.trim().isEmpty()) {
+            log.warn("{} is missing", HOST_KEY);
+            ret = false;
+        }
+
         if (!validatePort(newProperties.getProperty(PORT_KEY))) {
             ret = false;
         }
@@ -138,24 +201,251 @@ public abstract class ReloadingPropertiesReader {
         if (!validateReportingInterval(newProperties.getProperty(REPORTING_INTERVAL_KEY))) {
             ret = false;
         }
+
+        final String batchFormat = newProperties.getProperty(BATCH_FORMAT_KEY);
+        if (batchFormat != null && WireFormat.fromName(batchFormat) != WireFormat.PICKLE
+                && WireFormat.fromName(batchFormat) != WireFormat.PROTOBUF) {
+            log.warn("{} is configured false: {}. Value must be either pickle or protobuf", BATCH_FORMAT_KEY, batchFormat);
+            ret = false;
+        }
+
+        if (!validatePositiveInteger(SINK_QUEUE_SIZE_KEY, newProperties.getProperty(SINK_QUEUE_SIZE_KEY))) {
+            ret = false;
+        }
+
+        if (!validateSinks(newProperties)) {
+            ret = false;
+        }
+
+        if (!validateBoolean(TAGGED_SERIES_KEY, newProperties.getProperty(TAGGED_SERIES_KEY))) {
+            ret = false;
+        }
+
+        if (!validateTagRules(newProperties)) {
+            ret = false;
+        }
+
+        if (!validateTopicCounters(newProperties)) {
+            ret = false;
+        }
+
+        if (!validateBoolean(TLS_KEY, newProperties.getProperty(TLS_KEY))) {
+            ret = false;
+        }
+
+        if (!validateBoolean(HTTP_ENDPOINT_KEY, newProperties.getProperty(HTTP_ENDPOINT_KEY))) {
+            ret = false;
+        }
+
+        final String httpPort = newProperties.getProperty(HTTP_PORT_KEY);
+        if (httpPort != null && !validatePort(httpPort)) {
+            ret = false;
+        }
+
+        if (!validateNonNegativeInteger(GAUGE_TIMEOUT_KEY, newProperties.getProperty(GAUGE_TIMEOUT_KEY))) {
+            ret = false;
+        }
+
+        if (!validateNonNegativeInteger(BANDWIDTH_LIMIT_KEY, newProperties.getProperty(BANDWIDTH_LIMIT_KEY))) {
+            ret = false;
+        }
+
+        if (!validateNonNegativeInteger(DNS_CACHE_TTL_KEY, newProperties.getProperty(DNS_CACHE_TTL_KEY))) {
+            ret = false;
+        }
+
+        if (!validateNonNegativeInteger(HISTORY_HOURS_KEY, newProperties.getProperty(HISTORY_HOURS_KEY))) {
+            ret = false;
+        }
+
+        for (String key : new String[]{GAUGE_MAX_STALENESS_KEY, GAUGE_MAX_OVERRUNS_KEY, SLOW_GAUGE_INTERVAL_KEY,
+                REPORTING_PARTITIONS_KEY, BANDWIDTH_BURST_KEY, GAUGE_SAMPLE_INTERVAL_KEY, HISTORY_MAX_MEGABYTES_KEY}) {
+            if (!validatePositiveInteger(key, newProperties.getProperty(key))) {
+                ret = false;
+            }
+        }
+
+        for (String key : new String[]{RATE_COUNTER_DELTAS_KEY, RATE_COUNTERS_MONOTONIC_KEY}) {
+            if (!validateBoolean(key, newProperties.getProperty(key))) {
+                ret = false;
+            }
+        }
+
+        for (String key : new String[]{HIGH_PRIORITY_KEY, LOW_PRIORITY_KEY, SAMPLED_GAUGES_KEY, RATE_COUNTERS_KEY}) {
+            if (!validatePattern(key, newProperties.getProperty(key))) {
+                ret = false;
+            }
+        }
         return ret;
     }
 
-    private boolean validateReportingInterval(final String stringReportingInterval) {
-        if (stringReportingInterval == null) { //using default is ok
+    private static boolean validatePattern(final String key, final String value) {
+        if (value == null) { //using default is ok
             return true;
         }
         try {
-            Integer.parseInt(stringReportingInterval);
-        } catch (Exception e) {
-            log.warn("reportingInterval is configured false: {}. Value must be an integer", stringReportingInterval);
+            Pattern.compile(value);
+        } catch (PatternSyntaxException e) {
+            log.warn("{} is configured false: {}. {}", key, value, e.getDescription());
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean validateTopicCounters(final Properties newProperties) {
+        boolean ret = true;
+        for (String key : newProperties.stringPropertyNames()) {
+            if (!key.startsWith(TOPIC_COUNTER_KEY_PREFIX)) {
+                continue;
+            }
+            final String filter = newProperties.getProperty(key);
+            if (!isValidTopicFilter(filter)) {
+                log.warn("{} is configured false: {}. Value must be an MQTT topic filter", key, filter);
+                ret = false;
+            }
+        }
+        return ret;
+    }
+
+    private static boolean isValidTopicFilter(final String filter) {
+        if (filter.isEmpty()) {
             return false;
         }
+        final String[] levels = filter.split("/", -1);
+        for (int i = 0; i < levels.length; i++) {
+            final String level = levels[i];
+            if (level.equals("#")) {
+                if (i != levels.length - 1) {
+                    return false;
+                }
+            } else if (!level.equals("+") && (level.contains("#") || level.contains("+"))) {
+                return false;
+            }
+        }
+        return true;
+    }
 
+    private static boolean validateTagRules(final Properties newProperties) {
+        boolean ret = true;
+        for (String key : newProperties.stringPropertyNames()) {
+            if (!key.startsWith(TAG_RULE_KEY_PREFIX)) {
+                continue;
+            }
+            final String regex = newProperties.getProperty(key);
+            try {
+                if (Pattern.compile(regex).matcher("").groupCount() < 1) {
+                    log.warn("{} is configured false: {}. The pattern must contain a capturing group", key, regex);
+                    ret = false;
+                }
+            } catch (PatternSyntaxException e) {
+                log.warn("{} is configured false: {}. {}", key, regex, e.getDescription());
+                ret = false;
+            }
+        }
+        return ret;
+    }
+
+    private static boolean validateBoolean(final String key, final String value) {
+        if (value == null) { //using default is ok
+            return true;
+        }
+        if (!(value.equals("false") || value.equals("true"))) {
+            log.warn("{} is configured false: {}. Value must be either true or false", key, value);
+            return false;
+        }
         return true;
     }
 
-    private boolean validateBatchSize(final String stringBatchSize) {
+    private static boolean validateSinks(final Properties newProperties) {
+        boolean ret = true;
+        for (String sink : splitList(newProperties.getProperty(SINKS_KEY))) {
+            final String keyPrefix = SINK_KEY_PREFIX + sink;
+
+            if (newProperties.getProperty(keyPrefix + SINK_HOST_SUFFIX) == null) {
+                log.warn("{} is missing for sink {}", keyPrefix + SINK_HOST_SUFFIX, sink);
+                ret = false;
+            }
+            if (!validatePort(newProperties.getProperty(keyPrefix + SINK_PORT_SUFFIX))) {
+                ret = false;
+            }
+
+            final String format = newProperties.getProperty(keyPrefix + SINK_FORMAT_SUFFIX);
+            if (format != null && WireFormat.fromName(format) == null) {
+                log.warn("{} is configured false: {}. Value must be one of plaintext, pickle, protobuf, statsd or influx",
+                        keyPrefix + SINK_FORMAT_SUFFIX, format);
+                ret = false;
+            }
+
+            final String protocol = newProperties.getProperty(keyPrefix + SINK_PROTOCOL_SUFFIX);
+            if (protocol != null && !(protocol.equals("tcp") || protocol.equals("udp") || protocol.equals("tls"))) {
+                log.warn("{} is configured false: {}. Value must be one of tcp, udp or tls",
+                        keyPrefix + SINK_PROTOCOL_SUFFIX, protocol);
+                ret = false;
+            }
+        }
+        return ret;
+    }
+
+    private static boolean validatePositiveInteger(final String key, final String value) {
+        if (value == null) { //using default is ok
+            return true;
+        }
+        try {
+            if (Integer.parseInt(value) > 0) {
+                return true;
+            }
+        } catch (Exception e) {
+            //logged below
+        }
+        log.warn("{} is configured false: {}. Value must be an integer greater than 0", key, value);
+        return false;
+    }
+
+    private static boolean validateNonNegativeInteger(final String key, final String value) {
+        if (value == null) { //using default is ok
+            return true;
+        }
+        try {
+            if (Integer.parseInt(value) >= 0) {
+                return true;
+            }
+        } catch (Exception e) {
+            //logged below
+        }
+        log.warn("{} is configured false: {}. Value must be an integer greater than or equal to 0", key, value);
+        return false;
+    }
+
+    static List<String> splitList(final String value) {
+        final List<String> values = Lists.newArrayList();
+        if (value == null) {
+            return values;
+        }
+        for (String element : value.split(",")) {
+            if (!element.trim().isEmpty()) {
+                values.add(element.trim());
+            }
+        }
+        return values;
+    }
+
+    private static boolean validateReportingInterval(final String stringReportingInterval) {
+        if (stringReportingInterval == null) { //using default is ok
+            return true;
+        }
+        try {
+            if (Integer.parseInt(stringReportingInterval) > 0) {
+                return true;
+            }
+        } catch (Exception e) {
+            //logged below
+        }
+        log.warn("reportingInterval is configured false: {}. Value must be an integer greater than 0",
+                stringReportingInterval);
+        return false;
+    }
+
+    private static boolean validateBatchSize(final String stringBatchSize) {
         if (stringBatchSize == null) {  //using default is ok
             return true;
         }
@@ -169,7 +459,7 @@ public abstract class ReloadingPropertiesReader {
         return true;
     }
 
-    private boolean validateBatchMode(final String stringBatchMode) {
+    private static boolean validateBatchMode(final String stringBatchMode) {
         if (stringBatchMode == null) {
             return true; //batchMode not set is ok
         }
@@ -181,7 +471,7 @@ public abstract class ReloadingPropertiesReader {
         return true;
     }
 
-    private boolean validatePort(final String stringPort) {
+    private static boolean validatePort(final String stringPort) {
         final int port;
         try {
              port = Integer.parseInt(stringPort);
@@ -200,6 +490,10 @@ public abstract class ReloadingPropertiesReader {
         return true;
     }
 
+    /**
+     * Registers a callback for changes of a property. A property name ending with '*' matches
+     * all properties starting with the part before the '*'.
+     */
     void addCallback(final String propertyName, final ValueChangedCallback<String> changedCallback) {
 
         if (!callbacks.containsKey(propertyName)) {
@@ -209,7 +503,19 @@ public abstract class ReloadingPropertiesReader {
         callbacks.get(propertyName).add(changedCallback);
     }
 
-    private Map<String, String> getCurrentValues() {
+    private List<ValueChangedCallback<String>> getCallbacks(final String key) {
+        final List<ValueChangedCallback<String>> matching = Lists.newArrayList();
+        for (Map.Entry<String, List<ValueChangedCallback<String>>> entry : callbacks.entrySet()) {
+            final String propertyName = entry.getKey();
+            if (propertyName.equals(key) ||
+                    (propertyName.endsWith("*") && key.startsWith(propertyName.substring(0, propertyName.length() - 1)))) {
+                matching.addAll(entry.getValue());
+            }
+        }
+        return matching;
+    }
+
+    private static Map<String, String> getValues(final Properties properties) {
         Map<String, String> values = Maps.newHashMap();
         for (String key : properties.stringPropertyNames()) {
             values.put(key, properties.getProperty(key));
@@ -217,7 +523,7 @@ public abstract class ReloadingPropertiesReader {
         return values;
     }
 
-    private void loadProperties() throws IOException {
+    private Properties loadProperties() throws IOException {
         final Properties fileProperties = new Properties();
 
         fileProperties.load(new FileReader(file));
@@ -230,8 +536,9 @@ public abstract class ReloadingPropertiesReader {
                 propertiesMap.put(key, environmentVariableValue.get());
             }
         }
-        properties = new Properties();
-        properties.putAll(propertiesMap);
+        final Properties loaded = new Properties();
+        loaded.putAll(propertiesMap);
+        return loaded;
     }
 
     private String getEnvironmentVariableName(final String key) {
@@ -240,34 +547,36 @@ public abstract class ReloadingPropertiesReader {
 
     private void logChanges(final Map<String, String> oldValues, final Map<String, String> newValues) {
         final MapDifference<String, String> difference = Maps.difference(oldValues, newValues);
+        //the new value of the first changed property of every callback, a callback is only called once per reload
+        final Map<ValueChangedCallback<String>, String> changed = Maps.newLinkedHashMap();
 
         for (Map.Entry<String, MapDifference.ValueDifference<String>> stringValueDifferenceEntry : difference.entriesDiffering().entrySet()) {
             log.debug("Plugin configuration {} changed from {} to {}",
                     stringValueDifferenceEntry.getKey(), stringValueDifferenceEntry.getValue().leftValue(),
                     stringValueDifferenceEntry.getValue().rightValue());
-
-            if (callbacks.containsKey(stringValueDifferenceEntry.getKey())) {
-                for (ValueChangedCallback<String> callback : callbacks.get(stringValueDifferenceEntry.getKey())) {
-                    callback.valueChanged(stringValueDifferenceEntry.getValue().rightValue());
-                }
-            }
+            collectCallbacks(changed, stringValueDifferenceEntry.getKey(), stringValueDifferenceEntry.getValue().rightValue());
         }
 
         for (Map.Entry<String, String> stringStringEntry : difference.entriesOnlyOnLeft().entrySet()) {
-            log.debug("Plugin configuration {} removed", stringStringEntry.getKey(), stringStringEntry.getValue());
-            if (callbacks.containsKey(stringStringEntry.getKey())) {
-                for (ValueChangedCallback<String> callback : callbacks.get(stringStringEntry.getKey())) {
-                    callback.valueChanged(properties.getProperty(stringStringEntry.getValue()));
-                }
-            }
+            log.debug("Plugin configuration {} removed", stringStringEntry.getKey());
+            collectCallbacks(changed, stringStringEntry.getKey(), null);
         }
 
         for (Map.Entry<String, String> stringStringEntry : difference.entriesOnlyOnRight().entrySet()) {
             log.debug("Plugin configuration {} added: {}", stringStringEntry.getKey(), stringStringEntry.getValue());
-            if (callbacks.containsKey(stringStringEntry.getKey())) {
-                for (ValueChangedCallback<String> callback : callbacks.get(stringStringEntry.getKey())) {
-                    callback.valueChanged(stringStringEntry.getValue());
-                }
+            collectCallbacks(changed, stringStringEntry.getKey(), stringStringEntry.getValue());
+        }
+
+        for (Map.Entry<ValueChangedCallback<String>, String> entry : changed.entrySet()) {
+            entry.getKey().valueChanged(entry.getValue());
+        }
+    }
+
+    private void collectCallbacks(final Map<ValueChangedCallback<String>, String> changed, final String key,
+                                  final String newValue) {
+        for (ValueChangedCallback<String> callback : getCallbacks(key)) {
+            if (!changed.containsKey(callback)) {
+                changed.put(callback, newValue);
             }
         }
     }
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.plugins.metrics.graphite.reporter;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the threads the reporter runs on.
+ * <p>
+ * This is the JDK 21 variant of this class, it is only loaded from {@code META-INF/versions/21} of the
+ * multi-release jar. Reporting ticks and writes to the metric endpoints run on virtual threads, so
+ * blocking socket I/O to slow endpoints does not pin platform threads of the broker.
+ */
+public final class ReporterThreads {
+
+    private static final int HISTORY_QUEUE_SIZE = 4;
+
+    private ReporterThreads() {
+    }
+
+    public static boolean isVirtual() {
+        return true;
+    }
+
+    public static ScheduledExecutorService newReportingExecutor(final String name) {
+        return Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().name(name + "-", 1).factory());
+    }
+
+    public static ExecutorService newSendingExecutor(final String name) {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 1).factory());
+    }
+
+    public static ExecutorService newEvaluationExecutor(final String name) {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 1).factory());
+    }
+
+    public static ExecutorService newStartupExecutor(final String name) {
+        return Executors.newSingleThreadExecutor(Thread.ofVirtual().name(name + "-", 1).factory());
+    }
+
+    public static ExecutorService newHistoryExecutor(final String name) {
+        return new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(HISTORY_QUEUE_SIZE),
+                Thread.ofVirtual().name(name + "-", 1).factory());
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.plugins.metrics.graphite.reporter;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Records the reporting ticks and the flushes to the endpoints as Java Flight Recorder events.
+ * <p>
+ * This is the JDK 21 variant of this class, it is only loaded from {@code META-INF/versions/21} of the
+ * multi-release jar. The events are only built if they are enabled in a running recording.
+ */
+public final class ReportingEvents {
+
+    private ReportingEvents() {
+    }
+
+    public static boolean isAvailable() {
+        return true;
+    }
+
+    public static void tick(final int partition, final int datapoints, final int bytes,
+                            final long snapshotNanos, final long encodeNanos) {
+        final TickEvent event = new TickEvent();
+        if (!event.shouldCommit()) {
+            return;
+        }
+        event.partition = partition;
+        event.datapoints = datapoints;
+        event.bytes = bytes;
+        event.snapshotDuration = snapshotNanos;
+        event.encodeDuration = encodeNanos;
+        event.commit();
+    }
+
+    public static void flush(final String sink, final Object endpoint, final int bytes, final long durationNanos,
+                             final Exception failure) {
+        final FlushEvent event = new FlushEvent();
+        if (!event.shouldCommit()) {
+            return;
+        }
+        event.sink = sink;
+        event.endpoint = String.valueOf(endpoint);
+        event.bytes = bytes;
+        event.flushDuration = durationNanos;
+        event.failure = failure == null ? null : failure.toString();
+        event.commit();
+    }
+
+    @Name("com.hivemq.plugins.graphite.Tick")
+    @Label("Graphite Reporting Tick")
+    @Description("The metrics of a partition were read and encoded for all endpoints")
+    @Category({"HiveMQ", "Graphite Plugin"})
+    static class TickEvent extends Event {
+
+        @Label("Partition")
+        int partition;
+
+        @Label("Datapoints")
+        int datapoints;
+
+        @Label("Encoded Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Snapshot Duration")
+        @Timespan
+        long snapshotDuration;
+
+        @Label("Encode Duration")
+        @Timespan
+        long encodeDuration;
+    }
+
+    @Name("com.hivemq.plugins.graphite.Flush")
+    @Label("Graphite Flush")
+    @Description("A payload was written to a metric endpoint")
+    @Category({"HiveMQ", "Graphite Plugin"})
+    static class FlushEvent extends Event {
+
+        @Label("Sink")
+        String sink;
+
+        @Label("Endpoint")
+        String endpoint;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Flush Duration")
+        @Timespan
+        long flushDuration;
+
+        @Label("Failure")
+        String failure;
+    }
+}
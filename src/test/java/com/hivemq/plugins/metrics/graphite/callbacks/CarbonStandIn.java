@@ -0,0 +1,297 @@
+package com.hivemq.plugins.metrics.graphite.callbacks;
+
+import javax.net.ssl.SSLContext;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local stand-in for Carbon which accepts TCP connections and UDP datagrams in any wire format and counts the
+ * received datapoints of the synthetic metrics, whose names all start with {@link #NAME_PREFIX}. Every wire format
+ * contains the series name once per datapoint, so the datapoints are counted without parsing the format.
+ * With a server context the TCP connections are accepted via TLS.
+ * <p>
+ * Faults are injected in cycles of {@link #FAULT_PERIOD_MILLIS}, see {@link Fault}.
+ */
+class CarbonStandIn implements Closeable {
+
+    static final String NAME_PREFIX = "harness.";
+
+    static final long FAULT_PERIOD_MILLIS = 10_000;
+
+    private static final byte[] PATTERN = NAME_PREFIX.getBytes(Charset.forName("UTF-8"));
+    private static final long STALL_MILLIS = 5_000;
+    private static final double DROP_RATE = 0.1;
+
+    enum Fault {
+        /**
+         * Reads as fast as possible.
+         */
+        NONE,
+        /**
+         * Reads at most the configured bytes per second, like a Carbon relay on an overloaded host.
+         */
+        SLOW,
+        /**
+         * Stops reading for 5 seconds every 10 seconds, so the socket buffers fill up and writes block.
+         */
+        STALL,
+        /**
+         * Resets all TCP connections every 10 seconds.
+         */
+        RESET,
+        /**
+         * Drops 10% of the UDP datagrams. TCP connections are not affected.
+         */
+        DROP
+    }
+
+    private final Fault fault;
+    private final long bytesPerSecond;
+    private final ServerSocket serverSocket;
+    private final DatagramSocket datagramSocket;
+    private final List<Socket> connections = new CopyOnWriteArrayList<>();
+    private final Set<Long> threadIds = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+    private final AtomicLong datapoints = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong resets = new AtomicLong();
+    private volatile long lastArrivalNanos;
+    private volatile boolean stalled;
+    private volatile boolean closed;
+
+    /**
+     * @param bytesPerSecond the read rate of the {@link Fault#SLOW} fault
+     */
+    CarbonStandIn(final Fault fault, final long bytesPerSecond) throws IOException {
+        this(fault, bytesPerSecond, null);
+    }
+
+    /**
+     * @param bytesPerSecond the read rate of the {@link Fault#SLOW} fault
+     * @param serverContext  the context TCP connections are accepted with or <code>null</code> for plain TCP
+     */
+    CarbonStandIn(final Fault fault, final long bytesPerSecond, final SSLContext serverContext) throws IOException {
+        this.fault = fault;
+        this.bytesPerSecond = bytesPerSecond;
+        serverSocket = serverContext == null
+                ? new ServerSocket(0, 50, InetAddress.getLoopbackAddress())
+                : serverContext.getServerSocketFactory().createServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        datagramSocket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        datagramSocket.setReceiveBufferSize(4 * 1024 * 1024);
+
+        start("carbon-stand-in-accept", new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        });
+        start("carbon-stand-in-udp", new Runnable() {
+            @Override
+            public void run() {
+                receiveDatagrams();
+            }
+        });
+        if (fault == Fault.STALL || fault == Fault.RESET) {
+            start("carbon-stand-in-fault", new Runnable() {
+                @Override
+                public void run() {
+                    injectFaults();
+                }
+            });
+        }
+    }
+
+    int getTcpPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    int getUdpPort() {
+        return datagramSocket.getLocalPort();
+    }
+
+    long getDatapoints() {
+        return datapoints.get();
+    }
+
+    long getBytes() {
+        return bytes.get();
+    }
+
+    long getResets() {
+        return resets.get();
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} the last bytes were received, 0 if nothing was received yet
+     */
+    long getLastArrivalNanos() {
+        return lastArrivalNanos;
+    }
+
+    /**
+     * @return <code>true</code> if the thread belongs to the stand-in, so its allocations are not the plugin's
+     */
+    boolean isOwnThread(final long threadId) {
+        return threadIds.contains(threadId);
+    }
+
+    private void start(final String name, final Runnable runnable) {
+        final Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        threadIds.add(thread.getId());
+        thread.start();
+    }
+
+    private void accept() {
+        while (!closed) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            connections.add(socket);
+            start("carbon-stand-in-tcp-" + socket.getPort(), new Runnable() {
+                @Override
+                public void run() {
+                    receive(socket);
+                }
+            });
+        }
+    }
+
+    private void receive(final Socket socket) {
+        final byte[] buffer = new byte[64 * 1024];
+        final Counter counter = new Counter();
+        final long start = System.nanoTime();
+        long received = 0;
+        try (InputStream in = socket.getInputStream()) {
+            while (true) {
+                while (stalled && !closed) {
+                    Thread.sleep(10);
+                }
+                final int read = in.read(buffer);
+                if (read == -1) {
+                    return;
+                }
+                counter.count(buffer, read);
+                received += read;
+                if (fault == Fault.SLOW) {
+                    //pace the reads to the configured rate
+                    final long due = start + TimeUnit.SECONDS.toNanos(received) / bytesPerSecond;
+                    final long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                }
+            }
+        } catch (SocketException e) {
+            //reset by the fault or closed
+        } catch (IOException | InterruptedException e) {
+            if (!closed) {
+                e.printStackTrace();
+            }
+        } finally {
+            connections.remove(socket);
+        }
+    }
+
+    private void receiveDatagrams() {
+        final byte[] buffer = new byte[64 * 1024];
+        final DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        final Random random = new Random(42);
+        while (!closed) {
+            try {
+                packet.setLength(buffer.length);
+                datagramSocket.receive(packet);
+            } catch (IOException e) {
+                return;
+            }
+            if (fault == Fault.DROP && random.nextDouble() < DROP_RATE) {
+                continue;
+            }
+            //datagrams contain complete lines, so every datagram can be counted on its own
+            new Counter().count(buffer, packet.getLength());
+        }
+    }
+
+    private void injectFaults() {
+        try {
+            while (!closed) {
+                Thread.sleep(FAULT_PERIOD_MILLIS - STALL_MILLIS);
+                if (fault == Fault.STALL) {
+                    stalled = true;
+                    Thread.sleep(STALL_MILLIS);
+                    stalled = false;
+                } else {
+                    Thread.sleep(STALL_MILLIS);
+                    for (Socket socket : connections) {
+                        try {
+                            socket.setSoLinger(true, 0);
+                            socket.close();
+                            resets.incrementAndGet();
+                        } catch (IOException e) {
+                            //already closed
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        stalled = false;
+        serverSocket.close();
+        datagramSocket.close();
+        for (Socket socket : connections) {
+            socket.close();
+        }
+    }
+
+    /**
+     * Counts the occurrences of the name prefix in a stream, also if they are split between two reads.
+     */
+    private class Counter {
+
+        private int matched;
+
+        private void count(final byte[] buffer, final int length) {
+            long found = 0;
+            for (int i = 0; i < length; i++) {
+                if (buffer[i] == PATTERN[matched]) {
+                    matched++;
+                    if (matched == PATTERN.length) {
+                        found++;
+                        matched = 0;
+                    }
+                } else {
+                    //the first byte of the prefix does not occur again in it, so only it can start a new match
+                    matched = buffer[i] == PATTERN[0] ? 1 : 0;
+                }
+            }
+            datapoints.addAndGet(found);
+            bytes.addAndGet(length);
+            lastArrivalNanos = System.nanoTime();
+        }
+    }
+}
@@ -2,12 +2,26 @@ package com.hivemq.plugins.metrics.graphite.callbacks;
 
 import com.codahale.metrics.MetricRegistry;
 import com.hivemq.plugins.metrics.graphite.utils.GraphiteConfiguration;
+import com.hivemq.plugins.metrics.graphite.utils.GraphiteSettings;
+import com.hivemq.spi.callback.exception.BrokerUnableToStartException;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import java.io.File;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -23,23 +37,147 @@ public class GraphiteReportingTest {
     @Mock
     MetricRegistry metricRegistry;
 
+    @Mock
+    TopicThroughput topicThroughput;
+
     private GraphiteReporting graphiteReporting;
 
+    private GraphiteSettings settings;
+
     @Before
     public void before() {
         MockitoAnnotations.initMocks(this);
+        final Properties properties = new Properties();
+        properties.setProperty("host", "localhost");
+        properties.setProperty("port", "2003");
+        properties.setProperty("reportingInterval", "5");
+        settings = new GraphiteSettings(properties, new File("."));
+        when(graphiteConfiguration.snapshot()).thenReturn(settings);
 
-        graphiteReporting = new GraphiteReporting(metricRegistry, graphiteConfiguration);
+        graphiteReporting = new GraphiteReporting(metricRegistry, graphiteConfiguration, topicThroughput);
     }
 
     @Test
     public void test_onBrokerStart() throws Exception {
 
-        when(graphiteConfiguration.getReportingInterval()).thenReturn(5);
-
         graphiteReporting.onBrokerStart();
 
         verify(graphiteConfiguration, times(1)).setRestartListener(any(GraphiteConfiguration.RestartListener.class));
     }
 
-}
\ No newline at end of file
+    @Test(expected = BrokerUnableToStartException.class)
+    public void test_invalid_configuration_stops_broker_start() throws Exception {
+
+        when(graphiteConfiguration.snapshot()).thenThrow(new IllegalArgumentException("invalid"));
+
+        graphiteReporting.onBrokerStart();
+    }
+
+    @Test
+    public void test_onBrokerStop_waits_for_background_start() throws Exception {
+
+        graphiteReporting.onBrokerStart();
+        graphiteReporting.onBrokerStop();
+
+        verify(topicThroughput, times(1)).start(anyMapOf(String.class, String.class));
+    }
+
+    @Test
+    public void test_restarts_requested_during_a_restart_are_merged() throws Exception {
+
+        final CountDownLatch starting = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final AtomicInteger starts = new AtomicInteger();
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(final InvocationOnMock invocation) throws Throwable {
+                //blocks the background start which follows the broker start
+                if (starts.incrementAndGet() == 1) {
+                    starting.countDown();
+                    proceed.await();
+                }
+                return null;
+            }
+        }).when(topicThroughput).start(anyMapOf(String.class, String.class));
+
+        graphiteReporting.onBrokerStart();
+        final ArgumentCaptor<GraphiteConfiguration.RestartListener> listener =
+                ArgumentCaptor.forClass(GraphiteConfiguration.RestartListener.class);
+        verify(graphiteConfiguration).setRestartListener(listener.capture());
+
+        //the start is still running while the configuration changes several times
+        assertTrue(starting.await(5, TimeUnit.SECONDS));
+        listener.getValue().restart();
+        listener.getValue().restart();
+        listener.getValue().restart();
+        proceed.countDown();
+
+        graphiteReporting.onBrokerStop();
+
+        //one snapshot on broker start and one for the merged restart
+        verify(graphiteConfiguration, times(2)).snapshot();
+        verify(topicThroughput, times(2)).start(anyMapOf(String.class, String.class));
+    }
+
+    @Test
+    public void test_failed_start_closes_what_was_set_up() throws Exception {
+
+        final MetricRegistry registry = new MetricRegistry();
+        graphiteReporting = new GraphiteReporting(registry, graphiteConfiguration, topicThroughput);
+        final CountDownLatch failed = new CountDownLatch(1);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(final InvocationOnMock invocation) throws Throwable {
+                failed.countDown();
+                throw new IllegalStateException("failure");
+            }
+        }).when(topicThroughput).start(anyMapOf(String.class, String.class));
+
+        graphiteReporting.onBrokerStart();
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!registry.getNames().isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(registry.getNames().toString(), registry.getNames().isEmpty());
+
+        graphiteReporting.onBrokerStop();
+    }
+
+    @Test(expected = BrokerUnableToStartException.class)
+    public void test_unreadable_trust_store_stops_broker_start() throws Exception {
+
+        final Properties properties = new Properties();
+        properties.setProperty("host", "localhost");
+        properties.setProperty("port", "2003");
+        properties.setProperty("reportingInterval", "5");
+        properties.setProperty("tls", "true");
+        properties.setProperty("tlsTrustStore", "missing.jks");
+        when(graphiteConfiguration.snapshot()).thenReturn(new GraphiteSettings(properties, new File(".")));
+
+        graphiteReporting.onBrokerStart();
+    }
+
+    @Test
+    public void test_unreadable_trust_store_on_restart_keeps_reporting_stopped() throws Exception {
+
+        graphiteReporting.onBrokerStart();
+        final ArgumentCaptor<GraphiteConfiguration.RestartListener> listener =
+                ArgumentCaptor.forClass(GraphiteConfiguration.RestartListener.class);
+        verify(graphiteConfiguration).setRestartListener(listener.capture());
+
+        final Properties properties = new Properties();
+        properties.setProperty("host", "localhost");
+        properties.setProperty("port", "2003");
+        properties.setProperty("reportingInterval", "5");
+        properties.setProperty("tls", "true");
+        properties.setProperty("tlsTrustStore", "missing.jks");
+        when(graphiteConfiguration.snapshot()).thenReturn(new GraphiteSettings(properties, new File(".")));
+        listener.getValue().restart();
+        graphiteReporting.onBrokerStop();
+
+        verify(topicThroughput, times(1)).start(anyMapOf(String.class, String.class));
+        verify(topicThroughput, times(2)).stop();
+    }
+}
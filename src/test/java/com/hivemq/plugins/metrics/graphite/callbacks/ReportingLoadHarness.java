@@ -0,0 +1,420 @@
+package com.hivemq.plugins.metrics.graphite.callbacks;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.hivemq.plugins.metrics.graphite.sender.TlsContexts;
+import com.hivemq.plugins.metrics.graphite.utils.GraphiteConfiguration;
+import com.hivemq.plugins.metrics.graphite.utils.SystemEnvironmentReader;
+import com.hivemq.spi.config.SystemInformation;
+import com.hivemq.spi.services.PluginExecutorService;
+
+import javax.net.ssl.SSLContext;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs {@link GraphiteReporting} against a local {@link CarbonStandIn} with a synthetic registry and reports the
+ * sustained throughput, the tick latency, the data loss and the allocation of the plugin for every sender mode.
+ * <p>
+ * The registry contains 60% counters, 30% gauges and 10% histograms, which are updated by a background thread
+ * while the plugin reports them. The tick latency is the time from the start of a tick until the
+ * stand-in received the last bytes before the next tick. The loss compares the datapoints the stand-in received
+ * with the datapoints of all ticks, so it includes the datapoints the plugin dropped on purpose.
+ * The allocation counts all threads except those of the harness and the stand-in and needs a HotSpot JVM.
+ * <p>
+ * A short run is part of the build, see {@link ReportingLoadHarnessTest}. Start a full run with
+ * <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.hivemq.plugins.metrics.graphite.callbacks.ReportingLoadHarness</code>
+ * <p>
+ * Options as system properties:
+ * <ul>
+ * <li><code>harness.metrics</code> the number of metrics, 10000 by default</li>
+ * <li><code>harness.seconds</code> the seconds every mode runs, 30 by default</li>
+ * <li><code>harness.interval</code> the reporting interval in seconds, 1 by default</li>
+ * <li><code>harness.modes</code> any of <code>plaintext,pickle,protobuf,udp,tls,statsd,influx</code>, all by
+ * default</li>
+ * <li><code>harness.fault</code> one of <code>none,slow,stall,reset,drop</code>, none by default</li>
+ * <li><code>harness.slowBytesPerSecond</code> the read rate of the slow fault, 1048576 by default</li>
+ * </ul>
+ */
+public class ReportingLoadHarness {
+
+    private static final String PROBE = CarbonStandIn.NAME_PREFIX + "a.probe";
+    private static final int HISTOGRAM_SERIES = 11;
+    private static final long DRAIN_MILLIS = 2_000;
+    private static final String STORE_PASSWORD = "changeit";
+
+    static final String ALL_MODES = "plaintext,pickle,protobuf,udp,tls,statsd,influx";
+
+    private final int metrics;
+    private final int seconds;
+    private final int interval;
+    private final CarbonStandIn.Fault fault;
+    private final long slowBytesPerSecond;
+
+    ReportingLoadHarness(final int metrics, final int seconds, final int interval,
+                                 final CarbonStandIn.Fault fault, final long slowBytesPerSecond) {
+        this.metrics = metrics;
+        this.seconds = seconds;
+        this.interval = interval;
+        this.fault = fault;
+        this.slowBytesPerSecond = slowBytesPerSecond;
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final ReportingLoadHarness harness = new ReportingLoadHarness(
+                Integer.getInteger("harness.metrics", 10_000),
+                Integer.getInteger("harness.seconds", 30),
+                Integer.getInteger("harness.interval", 1),
+                CarbonStandIn.Fault.valueOf(System.getProperty("harness.fault", "none").toUpperCase(Locale.US)),
+                Long.getLong("harness.slowBytesPerSecond", 1024 * 1024));
+
+        final List<Result> results = new ArrayList<>();
+        for (String mode : System.getProperty("harness.modes", ALL_MODES).split(",")) {
+            results.add(harness.run(mode.trim()));
+        }
+
+        System.out.printf("%n%-9s %-6s %8s %10s %6s %12s %7s %8s %8s %8s %8s %12s%n", "mode", "fault", "metrics",
+                "dp/tick", "ticks", "dp/s", "loss", "p50 ms", "p95 ms", "p99 ms", "max ms", "alloc/tick");
+        for (Result result : results) {
+            System.out.println(result);
+        }
+    }
+
+    /**
+     * Reports to a new stand-in in the given mode for the configured seconds and waits until the stand-in received
+     * everything that was sent.
+     */
+    Result run(final String mode) throws Exception {
+        final MetricRegistry registry = new MetricRegistry();
+        final Probe probe = new Probe();
+        final int datapointsPerTick = populate(registry, probe);
+        final Updater updater = new Updater(registry);
+        final SSLContext serverContext = mode.equals("tls")
+                ? TlsContexts.create(resource("/tls/server.jks"), STORE_PASSWORD, null, null) : null;
+
+        try (CarbonStandIn standIn = new CarbonStandIn(fault, slowBytesPerSecond, serverContext);
+             CarbonStandIn discard = new CarbonStandIn(CarbonStandIn.Fault.NONE, 1)) {
+            probe.standIn = standIn;
+            final GraphiteConfiguration configuration = configure(mode, standIn, discard);
+            final GraphiteReporting reporting = new GraphiteReporting(registry, configuration,
+                    new TopicThroughput(registry));
+
+            updater.start();
+            final Map<Long, Long> allocatedBefore = allocatedBytes(standIn, discard, updater);
+            final long start = System.nanoTime();
+
+            reporting.onBrokerStart();
+            Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+
+            final long allocated = sum(allocatedBytes(standIn, discard, updater), allocatedBefore);
+            reporting.onBrokerStop();
+            Thread.sleep(DRAIN_MILLIS);
+            final long elapsed = System.nanoTime() - start;
+            updater.interrupt();
+
+            final long ticks = probe.finish();
+            final List<Long> latencies = probe.latencies;
+            Collections.sort(latencies);
+
+            return new Result(mode, fault, metrics, datapointsPerTick, ticks, standIn.getDatapoints(), elapsed,
+                    latencies, allocated);
+        }
+    }
+
+    /**
+     * @return the number of datapoints the metrics produce per tick
+     */
+    private int populate(final MetricRegistry registry, final Probe probe) {
+        registry.register(PROBE, probe);
+        int datapoints = 1;
+        for (int i = 0; i < metrics; i++) {
+            final String name = CarbonStandIn.NAME_PREFIX + String.format(Locale.US, "metric%06d", i);
+            if (i % 10 < 6) {
+                registry.counter(name + ".count");
+                datapoints++;
+            } else if (i % 10 < 9) {
+                final long value = i;
+                registry.register(name + ".value", new Gauge<Long>() {
+                    @Override
+                    public Long getValue() {
+                        return value;
+                    }
+                });
+                datapoints++;
+            } else {
+                registry.histogram(name + ".size");
+                datapoints += HISTOGRAM_SERIES;
+            }
+        }
+        return datapoints;
+    }
+
+    private GraphiteConfiguration configure(final String mode, final CarbonStandIn standIn,
+                                            final CarbonStandIn discard) throws IOException, URISyntaxException {
+        final Properties properties = new Properties();
+        properties.setProperty("host", "127.0.0.1");
+        properties.setProperty("port", String.valueOf(standIn.getTcpPort()));
+        properties.setProperty("reportingInterval", String.valueOf(interval));
+        switch (mode) {
+            case "plaintext":
+                properties.setProperty("batchMode", "false");
+                break;
+            case "pickle":
+            case "protobuf":
+                properties.setProperty("batchMode", "true");
+                properties.setProperty("batchFormat", mode);
+                properties.setProperty("batchSize", "500");
+                break;
+            case "tls":
+                properties.setProperty("batchMode", "false");
+                properties.setProperty("tls", "true");
+                properties.setProperty("tlsTrustStore", resource("/tls/trust.jks").getAbsolutePath());
+                properties.setProperty("tlsTrustStorePassword", STORE_PASSWORD);
+                break;
+            case "udp":
+                sink(properties, "udp", "plaintext", "udp", standIn.getUdpPort(), discard);
+                break;
+            case "statsd":
+                sink(properties, "statsd", "statsd", "udp", standIn.getUdpPort(), discard);
+                break;
+            case "influx":
+                sink(properties, "influx", "influx", "tcp", standIn.getTcpPort(), discard);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown mode " + mode);
+        }
+
+        final File folder = Files.createTempDirectory("graphite-harness").toFile();
+        final GraphiteConfiguration configuration = new GraphiteConfiguration(mock(PluginExecutorService.class),
+                systemInformation(folder), new SystemEnvironmentReader());
+        try (OutputStream out = new FileOutputStream(new File(folder, configuration.getFilename()))) {
+            properties.store(out, "load harness " + mode);
+        }
+        configuration.postConstruct();
+        return configuration;
+    }
+
+    /**
+     * Measures the sink instead of the Graphite endpoint. The Graphite endpoint is required, so it is sent to the
+     * discarding stand-in.
+     */
+    private static void sink(final Properties properties, final String name, final String format,
+                             final String protocol, final int port, final CarbonStandIn discard) {
+        properties.setProperty("port", String.valueOf(discard.getTcpPort()));
+        properties.setProperty("sinks", name);
+        properties.setProperty("sink." + name + ".host", "127.0.0.1");
+        properties.setProperty("sink." + name + ".port", String.valueOf(port));
+        properties.setProperty("sink." + name + ".format", format);
+        properties.setProperty("sink." + name + ".protocol", protocol);
+    }
+
+    private static File resource(final String name) throws URISyntaxException {
+        return new File(ReportingLoadHarness.class.getResource(name).toURI());
+    }
+
+    private static SystemInformation systemInformation(final File folder) {
+        final SystemInformation systemInformation = mock(SystemInformation.class);
+        when(systemInformation.getConfigFolder()).thenReturn(folder);
+        return systemInformation;
+    }
+
+    /**
+     * @return the allocated bytes of all live threads of the plugin by thread id, empty if not supported
+     */
+    private static Map<Long, Long> allocatedBytes(final CarbonStandIn standIn, final CarbonStandIn discard,
+                                                  final Thread updater) {
+        final Map<Long, Long> allocated = new HashMap<>();
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return allocated;
+        }
+        final long harness = Thread.currentThread().getId();
+        for (long id : threads.getAllThreadIds()) {
+            if (id == harness || id == updater.getId() || standIn.isOwnThread(id) || discard.isOwnThread(id)) {
+                continue;
+            }
+            final long bytes = ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(id);
+            if (bytes >= 0) {
+                allocated.put(id, bytes);
+            }
+        }
+        return allocated;
+    }
+
+    /**
+     * @return the bytes the threads allocated since the first measurement, -1 if not supported
+     */
+    private static long sum(final Map<Long, Long> after, final Map<Long, Long> before) {
+        if (after.isEmpty()) {
+            return -1;
+        }
+        long sum = 0;
+        for (Map.Entry<Long, Long> entry : after.entrySet()) {
+            final Long previous = before.get(entry.getKey());
+            sum += entry.getValue() - (previous == null ? 0 : previous);
+        }
+        return sum;
+    }
+
+    private static double percentile(final List<Long> sorted, final double quantile) {
+        if (sorted.isEmpty()) {
+            return Double.NaN;
+        }
+        final int index = (int) Math.ceil(quantile * sorted.size()) - 1;
+        return sorted.get(Math.max(0, index)) / 1e6;
+    }
+
+    /**
+     * The measurements of one mode.
+     */
+    static class Result {
+
+        private final String mode;
+        private final CarbonStandIn.Fault fault;
+        private final int metrics;
+        private final int datapointsPerTick;
+        private final long ticks;
+        private final long received;
+        private final long elapsedNanos;
+        private final List<Long> latencies;
+        private final long allocated;
+
+        private Result(final String mode, final CarbonStandIn.Fault fault, final int metrics,
+                       final int datapointsPerTick, final long ticks, final long received, final long elapsedNanos,
+                       final List<Long> latencies, final long allocated) {
+            this.mode = mode;
+            this.fault = fault;
+            this.metrics = metrics;
+            this.datapointsPerTick = datapointsPerTick;
+            this.ticks = ticks;
+            this.received = received;
+            this.elapsedNanos = elapsedNanos;
+            this.latencies = latencies;
+            this.allocated = allocated;
+        }
+
+        long getTicks() {
+            return ticks;
+        }
+
+        /**
+         * @return the datapoints of all ticks
+         */
+        long getExpected() {
+            return ticks * datapointsPerTick;
+        }
+
+        /**
+         * @return the datapoints the stand-in received
+         */
+        long getReceived() {
+            return received;
+        }
+
+        @Override
+        public String toString() {
+            final long expected = getExpected();
+            return String.format(Locale.US, "%-9s %-6s %8d %10d %6d %12.0f %6.2f%% %8.1f %8.1f %8.1f %8.1f %10.1fMB",
+                    mode, fault.name().toLowerCase(Locale.US), metrics, datapointsPerTick, ticks,
+                    received / (elapsedNanos / 1e9),
+                    expected == 0 ? 0 : 100.0 * Math.max(0, expected - received) / expected,
+                    percentile(latencies, 0.5), percentile(latencies, 0.95), percentile(latencies, 0.99),
+                    percentile(latencies, 1),
+                    allocated < 0 || ticks == 0 ? Double.NaN : allocated / (double) ticks / (1024 * 1024));
+        }
+    }
+
+    /**
+     * A gauge which is read first in every tick, because gauges are reported first and its name sorts first.
+     * It marks the start of a tick, the tick ends when the stand-in received the last bytes before the next tick.
+     */
+    private static class Probe implements Gauge<Long> {
+
+        private final List<Long> latencies = new ArrayList<>();
+        private volatile CarbonStandIn standIn;
+        private long ticks;
+        private long tickStart;
+
+        @Override
+        public synchronized Long getValue() {
+            final long now = System.nanoTime();
+            endTick();
+            tickStart = now;
+            return ++ticks;
+        }
+
+        /**
+         * @return the number of ticks
+         */
+        private synchronized long finish() {
+            endTick();
+            return ticks;
+        }
+
+        private void endTick() {
+            if (tickStart == 0) {
+                return;
+            }
+            final long lastArrival = standIn.getLastArrivalNanos();
+            if (lastArrival > tickStart) {
+                latencies.add(lastArrival - tickStart);
+            }
+            tickStart = 0;
+        }
+    }
+
+    /**
+     * Updates the counters and histograms like the broker does while they are reported.
+     */
+    private static class Updater extends Thread {
+
+        private final List<Counter> counters = new ArrayList<>();
+        private final List<Histogram> histograms = new ArrayList<>();
+
+        private Updater(final MetricRegistry registry) {
+            super("harness-updater");
+            setDaemon(true);
+            counters.addAll(registry.getCounters().values());
+            histograms.addAll(registry.getHistograms().values());
+        }
+
+        @Override
+        public void run() {
+            long round = 0;
+            try {
+                while (!isInterrupted()) {
+                    for (Counter counter : counters) {
+                        counter.inc();
+                    }
+                    for (Histogram histogram : histograms) {
+                        histogram.update(round % 1000);
+                    }
+                    round++;
+                    Thread.sleep(10);
+                }
+            } catch (InterruptedException e) {
+                //stopped
+            }
+        }
+    }
+}
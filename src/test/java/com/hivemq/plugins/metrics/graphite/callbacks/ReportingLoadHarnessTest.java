@@ -0,0 +1,34 @@
+package com.hivemq.plugins.metrics.graphite.callbacks;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Only runs with the LoadHarness profile, it puts several seconds of socket load on every mode.
+ */
+public class ReportingLoadHarnessTest {
+
+    //UDP gives no delivery guarantee, even on the loopback interface
+    private static final double UDP_LOSS_TOLERANCE = 0.01;
+
+    @Test(timeout = 60_000)
+    public void test_no_datapoint_is_lost_in_any_mode() throws Exception {
+
+        final ReportingLoadHarness harness = new ReportingLoadHarness(100, 2, 1, CarbonStandIn.Fault.NONE, 1);
+
+        for (String mode : ReportingLoadHarness.ALL_MODES.split(",")) {
+            final ReportingLoadHarness.Result result = harness.run(mode);
+
+            assertTrue(mode, result.getTicks() > 0);
+            if (mode.equals("udp") || mode.equals("statsd")) {
+                assertTrue(mode + ": " + result.getReceived() + " of " + result.getExpected(),
+                        result.getReceived() <= result.getExpected()
+                                && result.getReceived() >= result.getExpected() * (1 - UDP_LOSS_TOLERANCE));
+            } else {
+                assertEquals(mode, result.getExpected(), result.getReceived());
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.hivemq.plugins.metrics.graphite.callbacks;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+import com.hivemq.spi.message.PUBLISH;
+import com.hivemq.spi.message.QoS;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TopicThroughputTest {
+
+    private MetricRegistry metricRegistry;
+    private TopicThroughput topicThroughput;
+
+    @Before
+    public void before() {
+        metricRegistry = new MetricRegistry();
+        topicThroughput = new TopicThroughput(metricRegistry);
+        topicThroughput.start(ImmutableMap.of(
+                "temperature", "sensors/+/temperature",
+                "sensors", "sensors/#",
+                "all", "#",
+                "exact", "a/b"));
+    }
+
+    @Test
+    public void test_topics_are_counted_per_filter() throws Exception {
+
+        publish("sensors/1/temperature", 10);
+        publish("sensors/2/temperature", 10);
+        publish("sensors/2/temperature", 10);
+        publish("sensors", 5);
+        publish("a/b", 1);
+        publish("a/b/c", 1);
+
+        assertEquals(3, messages("temperature"));
+        assertEquals(30, bytes("temperature"));
+        assertEquals(4, messages("sensors"));
+        assertEquals(35, bytes("sensors"));
+        assertEquals(1, messages("exact"));
+        assertEquals(6, messages("all"));
+    }
+
+    @Test
+    public void test_wildcards_do_not_match_system_topics() throws Exception {
+
+        publish("$SYS/broker/uptime", 1);
+
+        assertEquals(0, messages("all"));
+    }
+
+    @Test
+    public void test_stop_removes_counters() throws Exception {
+
+        publish("a/b", 1);
+        topicThroughput.stop();
+        publish("a/b", 1);
+
+        assertTrue(metricRegistry.getCounters().isEmpty());
+    }
+
+    private void publish(final String topic, final int size) throws Exception {
+        topicThroughput.onPublishReceived(new PUBLISH(new byte[size], topic, QoS.AT_MOST_ONCE), null);
+    }
+
+    private long messages(final String name) {
+        return metricRegistry.counter(MetricRegistry.name(TopicThroughput.METRIC_PREFIX, name, "messages")).getCount();
+    }
+
+    private long bytes(final String name) {
+        return metricRegistry.counter(MetricRegistry.name(TopicThroughput.METRIC_PREFIX, name, "bytes")).getCount();
+    }
+}
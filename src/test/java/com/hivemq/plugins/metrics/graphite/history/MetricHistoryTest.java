@@ -0,0 +1,185 @@
+/*
+ * Copyright 2017 dc-square GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.plugins.metrics.graphite.history;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.hivemq.plugins.metrics.graphite.reporter.MetricSnapshot;
+import com.hivemq.plugins.metrics.graphite.sender.PlainSeriesNames;
+import com.hivemq.plugins.metrics.graphite.sender.TcpTransport;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MetricHistoryTest {
+
+    private MetricRegistry registry;
+
+    private MetricSnapshot snapshot;
+
+    @Before
+    public void before() {
+        registry = new MetricRegistry();
+        snapshot = new MetricSnapshot();
+    }
+
+    @Test
+    public void test_block_round_trip() {
+        final Random random = new Random(42);
+        final long[] timestamps = new long[1000];
+        final double[] values = new double[timestamps.length];
+        long timestamp = 1500000000;
+        for (int i = 0; i < timestamps.length; i++) {
+            //regular, jittered and long gaps
+            timestamp += i % 100 == 0 ? 5000 + random.nextInt(100000) : 60 + random.nextInt(3) - 1;
+            timestamps[i] = timestamp;
+            switch (i % 4) {
+                case 0:
+                    values[i] = random.nextGaussian() * 1000;
+                    break;
+                case 1:
+                    values[i] = i / 4;
+                    break;
+                case 2:
+                    values[i] = values[i - 1];
+                    break;
+                default:
+                    values[i] = i % 8 == 3 ? Double.NaN : -0.0;
+            }
+        }
+
+        final GorillaBlock block = new GorillaBlock(timestamps[0]);
+        for (int i = 0; i < timestamps.length; i++) {
+            block.append(timestamps[i], values[i]);
+        }
+        block.close();
+
+        final GorillaBlock.Reader reader = block.reader();
+        for (int i = 0; i < timestamps.length; i++) {
+            assertTrue(reader.next());
+            assertEquals(timestamps[i], reader.getTimestamp());
+            assertEquals(Double.doubleToRawLongBits(values[i]), Double.doubleToRawLongBits(reader.getValue()));
+        }
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void test_regular_counter_is_compressed() {
+        final GorillaBlock block = new GorillaBlock(0);
+        for (int i = 0; i < 3600; i++) {
+            block.append(i, 1000 + i / 10);
+        }
+        block.close();
+
+        //16 bytes per datapoint uncompressed
+        assertTrue("size " + block.sizeInBytes(), block.sizeInBytes() < 3600 * 2);
+    }
+
+    @Test
+    public void test_inspect_time_range() throws Exception {
+        final MetricHistory history = new MetricHistory(3600, 1024 * 1024, registry);
+        report(history, 100, "a.count", 1L);
+        report(history, 160, "a.count", 2L);
+        report(history, 220, "a.count", 3L);
+        snapshot.reset(220);
+        snapshot.add("b.mean", 0.5);
+        history.offer(snapshot, null);
+
+        assertEquals("a.count 2 160\na.count 3 220\nb.mean 0.50 220\n",
+                inspect(history, 150, 300, null));
+        assertEquals("b.mean 0.50 220\n", inspect(history, 0, Long.MAX_VALUE, NameGlob.compile("b")));
+    }
+
+    @Test
+    public void test_datapoints_older_than_retention_are_dropped() throws Exception {
+        final MetricHistory history = new MetricHistory(7200, 1024 * 1024, registry);
+        for (long timestamp = 0; timestamp < 4 * 3600; timestamp += 60) {
+            report(history, timestamp, "a.count", timestamp);
+        }
+
+        final String lines = inspect(history, 0, Long.MAX_VALUE, null);
+        //whole blocks of an hour age out
+        assertTrue(lines.startsWith("a.count 3600 3600\n"));
+        assertTrue(lines.endsWith("a.count 14340 14340\n"));
+    }
+
+    @Test
+    public void test_oldest_blocks_are_dropped_if_memory_is_exceeded() throws Exception {
+        final MetricHistory history = new MetricHistory(100 * 3600, 4096, registry);
+        for (long timestamp = 0; timestamp < 100 * 3600; timestamp += 10) {
+            report(history, timestamp, "a.count", timestamp * 7 % 1000);
+        }
+
+        assertTrue(history.getBytes() <= 8192);
+        assertEquals(history.getBytes(), ((Gauge) registry.getGauges().get(MetricHistory.BYTES_METRIC)).getValue());
+        assertTrue(registry.counter(MetricHistory.DROPPED_METRIC).getCount() > 0);
+        final String lines = inspect(history, 0, Long.MAX_VALUE, null);
+        assertTrue(lines.endsWith("a.count " + (359990 * 7 % 1000) + " 359990\n"));
+
+        history.close();
+        assertTrue(registry.getGauges().isEmpty());
+    }
+
+    @Test(timeout = 10000)
+    public void test_replay_to_endpoint() throws Exception {
+        final MetricHistory history = new MetricHistory(3600, 1024 * 1024, registry);
+        report(history, 100, "a.count", 1L);
+        report(history, 160, "a.count", 2L);
+
+        try (ServerSocket server = new ServerSocket(0)) {
+            final TcpTransport transport = new TcpTransport("127.0.0.1", server.getLocalPort(), null);
+            transport.connect();
+            try (Socket accepted = server.accept()) {
+                assertEquals(2, history.replay(0, 200, new PlainSeriesNames(), transport));
+                transport.close();
+
+                final ByteArrayOutputStream received = new ByteArrayOutputStream();
+                try (InputStream in = accepted.getInputStream()) {
+                    final byte[] buffer = new byte[1024];
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        received.write(buffer, 0, read);
+                    }
+                }
+                assertEquals("a.count 1 100\na.count 2 160\n", received.toString("UTF-8"));
+            }
+        }
+    }
+
+    private void report(final MetricHistory history, final long timestamp, final String name, final long value) {
+        snapshot.reset(timestamp);
+        snapshot.add(name, value);
+        history.offer(snapshot, null);
+    }
+
+    private static String inspect(final MetricHistory history, final long from, final long until,
+                                  final NameGlob filter) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        history.inspect(from, until, filter, out);
+        return out.toString("UTF-8");
+    }
+}
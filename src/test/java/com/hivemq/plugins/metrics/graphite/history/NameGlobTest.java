@@ -0,0 +1,46 @@
+package com.hivemq.plugins.metrics.graphite.history;
+
+import com.google.common.base.Strings;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NameGlobTest {
+
+    @Test
+    public void test_levels_are_matched_as_prefix() throws Exception {
+
+        final NameGlob glob = NameGlob.compile("com.hivemq.messages");
+
+        assertTrue(glob.matches("com.hivemq.messages"));
+        assertTrue(glob.matches("com.hivemq.messages.incoming.total.count"));
+        assertFalse(glob.matches("com.hivemq.messagesX.count"));
+        assertFalse(glob.matches("com.hivemq"));
+    }
+
+    @Test
+    public void test_star_matches_within_one_level() throws Exception {
+
+        final NameGlob glob = NameGlob.compile("com.*.conn*s.current");
+
+        assertTrue(glob.matches("com.hivemq.connections.current"));
+        assertTrue(glob.matches("com.hivemq.conns.current"));
+        assertFalse(glob.matches("com.hivemq.networking.connections.current"));
+        assertFalse(glob.matches("com.hivemq.connections.overall"));
+    }
+
+    @Test(timeout = 5000)
+    public void test_many_stars_do_not_backtrack_exponentially() throws Exception {
+
+        final NameGlob glob = NameGlob.compile(Strings.repeat("*a", 100) + "b");
+
+        assertFalse(glob.matches(Strings.repeat("a", 10000)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_long_glob_is_rejected() throws Exception {
+
+        NameGlob.compile(Strings.repeat("a", NameGlob.MAX_LENGTH + 1));
+    }
+}
@@ -0,0 +1,150 @@
+package com.hivemq.plugins.metrics.graphite.http;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.hivemq.plugins.metrics.graphite.history.MetricHistory;
+import com.hivemq.plugins.metrics.graphite.reporter.MetricSnapshot;
+import com.hivemq.plugins.metrics.graphite.sender.MetricsFanOut;
+import com.hivemq.plugins.metrics.graphite.sender.PayloadConsumer;
+import com.hivemq.plugins.metrics.graphite.sender.PlainSeriesNames;
+import com.hivemq.plugins.metrics.graphite.sender.TokenBucket;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+public class SnapshotHttpEndpointTest {
+
+    private SnapshotHttpEndpoint endpoint;
+
+    private MetricsFanOut fanOut;
+
+    @Before
+    public void before() throws Exception {
+        endpoint = new SnapshotHttpEndpoint(new InetSocketAddress("127.0.0.1", 0), new PlainSeriesNames());
+        endpoint.start();
+
+        fanOut = new MetricsFanOut(endpoint.getConsumers());
+    }
+
+    @After
+    public void after() {
+        endpoint.stop();
+    }
+
+    @Test
+    public void test_unavailable_before_first_tick() throws Exception {
+
+        assertEquals(503, connect(SnapshotHttpEndpoint.GRAPHITE_PATH).getResponseCode());
+    }
+
+    @Test
+    public void test_serves_graphite_and_prometheus() throws Exception {
+
+        final MetricSnapshot snapshot = new MetricSnapshot();
+        snapshot.reset(100);
+        snapshot.add("com.hivemq.networking.connections.current", 5L);
+        fanOut.publish(snapshot);
+
+        assertEquals("com.hivemq.networking.connections.current 5 100\n", get(SnapshotHttpEndpoint.GRAPHITE_PATH));
+        assertEquals("com_hivemq_networking_connections_current 5\n", get(SnapshotHttpEndpoint.PROMETHEUS_PATH));
+    }
+
+    @Test
+    public void test_serves_history() throws Exception {
+        startWithHistory(Collections.<String, InetSocketAddress>emptyMap(), null);
+
+        final MetricSnapshot snapshot = new MetricSnapshot();
+        snapshot.reset(100);
+        snapshot.add("a.count", 1L);
+        snapshot.add("b.count", 2L);
+        snapshot.add("ab.count", 4L);
+        fanOut.publish(snapshot);
+        snapshot.reset(160);
+        snapshot.add("a.count", 3L);
+        fanOut.publish(snapshot);
+
+        assertEquals("a.count 3 160\n", get(SnapshotHttpEndpoint.HISTORY_PATH + "?match=a&from=150"));
+        assertEquals("ab.count 4 100\nb.count 2 100\n", get(SnapshotHttpEndpoint.HISTORY_PATH + "?match=*b.count"));
+        assertEquals(400, connect(SnapshotHttpEndpoint.HISTORY_PATH + "?match=").getResponseCode());
+        assertEquals(405, connect(SnapshotHttpEndpoint.REPLAY_PATH + "?target=graphite").getResponseCode());
+        assertEquals(400, connect(SnapshotHttpEndpoint.HISTORY_PATH + "?from=yesterday").getResponseCode());
+    }
+
+    @Test(timeout = 10000)
+    public void test_replays_only_to_configured_targets() throws Exception {
+
+        final TokenBucket bucket = spy(new TokenBucket(1024 * 1024, 64 * 1024, new Timer()));
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            startWithHistory(Collections.singletonMap("graphite",
+                    InetSocketAddress.createUnresolved("127.0.0.1", server.getLocalPort())), bucket);
+            final MetricSnapshot snapshot = new MetricSnapshot();
+            snapshot.reset(100);
+            snapshot.add("a.count", 1L);
+            fanOut.publish(snapshot);
+
+            assertEquals(400, post(SnapshotHttpEndpoint.REPLAY_PATH + "?target=127.0.0.1:" + server.getLocalPort()));
+            assertEquals(200, post(SnapshotHttpEndpoint.REPLAY_PATH + "?target=graphite"));
+
+            try (Socket accepted = server.accept(); InputStream in = accepted.getInputStream()) {
+                assertEquals("a.count 1 100\n", read(in));
+            }
+        }
+        //replays share the bandwidth limit of the senders
+        verify(bucket, atLeastOnce()).acquire(anyInt());
+    }
+
+    private void startWithHistory(final Map<String, InetSocketAddress> replayTargets,
+                                  final TokenBucket bucket) throws Exception {
+        endpoint.stop();
+        final MetricHistory history = new MetricHistory(3600, 1024 * 1024, new MetricRegistry());
+        endpoint = new SnapshotHttpEndpoint(new InetSocketAddress("127.0.0.1", 0), new PlainSeriesNames(), history,
+                new PlainSeriesNames(), replayTargets, bucket, null);
+        endpoint.start();
+        fanOut = new MetricsFanOut(Collections.<PayloadConsumer>singletonList(history));
+    }
+
+    private int post(final String path) throws Exception {
+        final HttpURLConnection connection = connect(path);
+        connection.setRequestMethod("POST");
+        return connection.getResponseCode();
+    }
+
+    private HttpURLConnection connect(final String path) throws Exception {
+        return (HttpURLConnection) new URL("http://127.0.0.1:" + endpoint.getPort() + path).openConnection();
+    }
+
+    private String get(final String path) throws Exception {
+        final HttpURLConnection connection = connect(path);
+        assertEquals(200, connection.getResponseCode());
+        try (InputStream in = connection.getInputStream()) {
+            return read(in);
+        }
+    }
+
+    private static String read(final InputStream in) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toString("UTF-8");
+    }
+}
@@ -1,6 +1,7 @@
 package com.hivemq.plugins.metrics.graphite.plugin;
 
 import com.hivemq.plugins.metrics.graphite.callbacks.GraphiteReporting;
+import com.hivemq.plugins.metrics.graphite.callbacks.TopicThroughput;
 import com.hivemq.spi.callback.CallbackPriority;
 import com.hivemq.spi.callback.registry.CallbackRegistry;
 import org.junit.Before;
@@ -8,7 +9,6 @@ import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
-import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -21,6 +21,9 @@ public class GraphiteMetricsMainClassTest {
     @Mock
     GraphiteReporting graphiteReporting;
 
+    @Mock
+    TopicThroughput topicThroughput;
+
     @Mock
     CallbackRegistry callbackRegistry;
 
@@ -32,7 +35,7 @@ public class GraphiteMetricsMainClassTest {
 
         when(graphiteReporting.priority()).thenReturn(CallbackPriority.MEDIUM);
 
-        mainClass = new TestGraphiteMetricsMainClass(graphiteReporting, callbackRegistry);
+        mainClass = new TestGraphiteMetricsMainClass(graphiteReporting, topicThroughput, callbackRegistry);
     }
 
     @Test
@@ -41,7 +44,8 @@ public class GraphiteMetricsMainClassTest {
 
         mainClass.postConstruct();
 
-        verify(callbackRegistry, times(1)).addCallback(any(GraphiteReporting.class));
+        verify(callbackRegistry, times(1)).addCallback(graphiteReporting);
+        verify(callbackRegistry, times(1)).addCallback(topicThroughput);
 
     }
 
@@ -50,8 +54,9 @@ public class GraphiteMetricsMainClassTest {
         private final CallbackRegistry callbackRegistry;
 
         public TestGraphiteMetricsMainClass(final GraphiteReporting graphiteReporting,
+                                            final TopicThroughput topicThroughput,
                                             final CallbackRegistry callbackRegistry) {
-            super(graphiteReporting);
+            super(graphiteReporting, topicThroughput);
             this.callbackRegistry = callbackRegistry;
         }
 
@@ -0,0 +1,200 @@
+package com.hivemq.plugins.metrics.graphite.reporter;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class GaugeEvaluatorTest {
+
+    private MetricRegistry metricRegistry;
+
+    private GaugeEvaluator evaluator;
+
+    private CountDownLatch release;
+
+    @Before
+    public void before() {
+        metricRegistry = new MetricRegistry();
+        evaluator = new GaugeEvaluator(metricRegistry, 50, 60_000, 2, 60_000, TimeUnit.MILLISECONDS);
+        release = new CountDownLatch(1);
+    }
+
+    @After
+    public void after() {
+        release.countDown();
+        evaluator.close();
+    }
+
+    @Test
+    public void test_fast_gauge() throws Exception {
+
+        assertEquals(1, evaluator.evaluate("fast", constant(1)));
+        assertEquals(0, metricRegistry.counter("com.hivemq.plugins.graphite.gauge.timeouts").getCount());
+    }
+
+    @Test
+    public void test_first_read_of_hanging_gauge_is_bounded() throws Exception {
+
+        final Gauge<Integer> gauge = new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                await(release);
+                return 1;
+            }
+        };
+
+        final long start = System.nanoTime();
+        assertNull(evaluator.evaluate("hanging", gauge));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        assertEquals(1, metricRegistry.counter("com.hivemq.plugins.graphite.gauge.timeouts").getCount());
+    }
+
+    @Test
+    public void test_gauge_over_budget_reports_cached_value() throws Exception {
+
+        final AtomicInteger calls = new AtomicInteger();
+        final Gauge<Integer> gauge = new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                if (calls.incrementAndGet() > 1) {
+                    await(release);
+                }
+                return calls.get();
+            }
+        };
+
+        assertEquals(1, evaluator.evaluate("slow", gauge));
+
+        final long start = System.nanoTime();
+        assertEquals(1, evaluator.evaluate("slow", gauge));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+
+        assertEquals(1, metricRegistry.counter("com.hivemq.plugins.graphite.gauge.timeouts").getCount());
+        assertTrue(metricRegistry.getTimers().containsKey("com.hivemq.plugins.graphite.gauge.slow.evaluation"));
+    }
+
+    @Test
+    public void test_gauge_without_value_is_skipped() throws Exception {
+
+        final AtomicInteger calls = new AtomicInteger();
+        final Gauge<Integer> gauge = new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                calls.incrementAndGet();
+                await(release);
+                return 1;
+            }
+        };
+
+        assertNull(evaluator.evaluate("blocked", gauge));
+        assertNull(evaluator.evaluate("blocked", gauge));
+        assertNull(evaluator.evaluate("blocked", gauge));
+
+        //the evaluation of the first tick is still running, no further evaluations were started
+        assertEquals(1, calls.get());
+        assertEquals(1, metricRegistry.counter("com.hivemq.plugins.graphite.gauge.timeouts").getCount());
+    }
+
+    @Test
+    public void test_gauge_is_read_inline_only_after_probation() throws Exception {
+
+        final AtomicInteger calls = new AtomicInteger();
+        final List<Thread> threads = new ArrayList<>();
+        final Gauge<Integer> gauge = new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                threads.add(Thread.currentThread());
+                if (calls.incrementAndGet() == GaugeEvaluator.PROBATION_READS + 1) {
+                    sleep(100);
+                }
+                return calls.get();
+            }
+        };
+
+        for (int i = 1; i <= GaugeEvaluator.PROBATION_READS + 2; i++) {
+            assertEquals(i, evaluator.evaluate("recovering", gauge));
+        }
+
+        final Thread reporting = Thread.currentThread();
+        for (int i = 0; i < GaugeEvaluator.PROBATION_READS; i++) {
+            assertNotSame(reporting, threads.get(i));
+        }
+        //trusted and read inline, but over budget, so it is on probation again
+        assertSame(reporting, threads.get(GaugeEvaluator.PROBATION_READS));
+        assertNotSame(reporting, threads.get(GaugeEvaluator.PROBATION_READS + 1));
+        assertEquals(1, metricRegistry.counter("com.hivemq.plugins.graphite.gauge.timeouts").getCount());
+    }
+
+    @Test
+    public void test_failing_gauge_is_skipped_and_counted() throws Exception {
+
+        final AtomicInteger calls = new AtomicInteger();
+        final Gauge<Integer> gauge = new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                if (calls.incrementAndGet() == 1 || calls.get() == GaugeEvaluator.PROBATION_READS + 2) {
+                    throw new IllegalStateException("failed");
+                }
+                return calls.get();
+            }
+        };
+
+        //fails on the evaluating thread
+        assertNull(evaluator.evaluate("failing", gauge));
+        for (int i = 2; i <= GaugeEvaluator.PROBATION_READS + 1; i++) {
+            assertEquals(i, evaluator.evaluate("failing", gauge));
+        }
+        //fails inline
+        assertNull(evaluator.evaluate("failing", gauge));
+        assertEquals(2, metricRegistry.counter("com.hivemq.plugins.graphite.gauge.errors").getCount());
+
+        final GaugeEvaluator inline = new GaugeEvaluator(metricRegistry, 0, 0, 1, 0, TimeUnit.MILLISECONDS);
+        assertNull(inline.evaluate("failing", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                throw new IllegalStateException("failed");
+            }
+        }));
+        assertEquals(3, metricRegistry.counter("com.hivemq.plugins.graphite.gauge.errors").getCount());
+        inline.close();
+    }
+
+    private static void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Gauge<Integer> constant(final int value) {
+        return new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return value;
+            }
+        };
+    }
+}
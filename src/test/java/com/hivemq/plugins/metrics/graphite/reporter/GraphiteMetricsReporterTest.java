@@ -0,0 +1,388 @@
+package com.hivemq.plugins.metrics.graphite.reporter;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.hivemq.plugins.metrics.graphite.sender.MetricsFanOut;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class GraphiteMetricsReporterTest {
+
+    @Mock
+    MetricsFanOut fanOut;
+
+    @Mock
+    Clock clock;
+
+    private MetricRegistry metricRegistry;
+
+    private GraphiteMetricsReporter reporter;
+
+    @Before
+    public void before() {
+        MockitoAnnotations.initMocks(this);
+
+        when(clock.getTime()).thenReturn(10_000L);
+
+        metricRegistry = new MetricRegistry();
+        final GaugeEvaluator gaugeEvaluator = new GaugeEvaluator(metricRegistry, 0, 0, 1, 0, TimeUnit.SECONDS);
+        reporter = new GraphiteMetricsReporter(metricRegistry, fanOut, gaugeEvaluator, clock, "prefix", 1, MetricPriorities.NONE);
+    }
+
+    @Test
+    public void test_report_counter_and_gauge() throws Exception {
+
+        metricRegistry.counter("counter").inc(3);
+        metricRegistry.register("gauge", new Gauge<Double>() {
+            @Override
+            public Double getValue() {
+                return 1.5;
+            }
+        });
+
+        reporter.report();
+
+        final ArgumentCaptor<MetricSnapshot> captor = ArgumentCaptor.forClass(MetricSnapshot.class);
+        verify(fanOut, times(1)).publish(captor.capture());
+
+        final MetricSnapshot snapshot = captor.getValue();
+        assertEquals(10, snapshot.getTimestamp());
+
+        final int gauge = indexOf(snapshot, "prefix.gauge");
+        assertEquals(1.5, snapshot.getValue(gauge), 0.0);
+        assertFalse(snapshot.isIntegral(gauge));
+
+        final int counter = indexOf(snapshot, "prefix.counter.count");
+        assertEquals(3, snapshot.getValue(counter), 0.0);
+        assertTrue(snapshot.isIntegral(counter));
+    }
+
+    @Test
+    public void test_report_continues_after_failure() throws Exception {
+
+        metricRegistry.counter("counter").inc();
+        doThrow(new IllegalStateException()).when(fanOut).publish(any(MetricSnapshot.class));
+
+        reporter.report();
+        reporter.report();
+
+        verify(fanOut, times(2)).publish(any(MetricSnapshot.class));
+    }
+
+    @Test
+    public void test_report_timer_series() throws Exception {
+
+        metricRegistry.timer("timer").update(2, TimeUnit.MILLISECONDS);
+
+        reporter.report();
+
+        final ArgumentCaptor<MetricSnapshot> captor = ArgumentCaptor.forClass(MetricSnapshot.class);
+        verify(fanOut).publish(captor.capture());
+
+        final MetricSnapshot snapshot = captor.getValue();
+        assertEquals(2.0, snapshot.getValue(indexOf(snapshot, "prefix.timer.max")), 0.0);
+        assertEquals(1, snapshot.getValue(indexOf(snapshot, "prefix.timer.count")), 0.0);
+    }
+
+    @Test
+    public void test_removed_metric_is_evicted() throws Exception {
+
+        metricRegistry.counter("counter").inc();
+        metricRegistry.counter("removed").inc();
+        reporter.report();
+
+        metricRegistry.remove("removed");
+        reporter.report();
+
+        final ArgumentCaptor<MetricSnapshot> captor = ArgumentCaptor.forClass(MetricSnapshot.class);
+        verify(fanOut, times(2)).publish(captor.capture());
+
+        final MetricSnapshot snapshot = captor.getValue();
+        indexOf(snapshot, "prefix.counter.count");
+        assertFalse(contains(snapshot, "prefix.removed.count"));
+        verify(fanOut).evict("prefix.removed.count");
+    }
+
+    @Test
+    public void test_emptied_priority_is_published_once_as_empty_snapshot() throws Exception {
+
+        final GaugeEvaluator gaugeEvaluator = new GaugeEvaluator(metricRegistry, 0, 0, 1, 0, TimeUnit.SECONDS);
+        final GraphiteMetricsReporter prioritized = new GraphiteMetricsReporter(metricRegistry, fanOut, gaugeEvaluator,
+                clock, "prioritized", 1, new MetricPriorities(Pattern.compile("important"), null));
+        metricRegistry.counter("important");
+        metricRegistry.counter("other");
+
+        final List<Integer> highSizes = new ArrayList<>();
+        doAnswer(new Answer<Integer>() {
+            @Override
+            public Integer answer(final InvocationOnMock invocation) {
+                final MetricSnapshot snapshot = (MetricSnapshot) invocation.getArguments()[0];
+                if (snapshot.getPriority() == Priority.HIGH) {
+                    highSizes.add(snapshot.size());
+                }
+                return 0;
+            }
+        }).when(fanOut).publish(any(MetricSnapshot.class));
+
+        prioritized.report();
+        metricRegistry.remove("important");
+        prioritized.report();
+        prioritized.report();
+
+        assertEquals(Arrays.asList(1, 0), highSizes);
+    }
+
+    @Test
+    public void test_partitions_report_every_metric_once_per_interval() throws Exception {
+
+        final GaugeEvaluator gaugeEvaluator = new GaugeEvaluator(metricRegistry, 0, 0, 1, 0, TimeUnit.SECONDS);
+        final GraphiteMetricsReporter partitioned =
+                new GraphiteMetricsReporter(metricRegistry, fanOut, gaugeEvaluator, clock, "partitioned", 3,
+                        MetricPriorities.NONE);
+        for (int i = 0; i < 30; i++) {
+            metricRegistry.counter("counter" + i).inc();
+        }
+
+        final List<String> reported = new ArrayList<>();
+        final List<Integer> sizes = new ArrayList<>();
+        doAnswer(new Answer<Integer>() {
+            @Override
+            public Integer answer(final InvocationOnMock invocation) {
+                final MetricSnapshot snapshot = (MetricSnapshot) invocation.getArguments()[0];
+                int size = 0;
+                for (int i = 0; i < snapshot.size(); i++) {
+                    if (snapshot.getName(i).startsWith("partitioned.counter")) {
+                        reported.add(snapshot.getName(i));
+                        size++;
+                    }
+                }
+                assertEquals(3, snapshot.getPartitions());
+                sizes.add(size);
+                return 0;
+            }
+        }).when(fanOut).publish(any(MetricSnapshot.class));
+
+        partitioned.report();
+        partitioned.report();
+        partitioned.report();
+
+        assertEquals(30, reported.size());
+        assertEquals(30, new HashSet<>(reported).size());
+        for (int size : sizes) {
+            assertTrue(size > 0 && size < 30);
+        }
+
+        partitioned.report();
+        assertEquals(new HashSet<>(reported.subList(0, sizes.get(0))), new HashSet<>(reported.subList(30, reported.size())));
+    }
+
+    @Test
+    public void test_high_priority_is_published_first() throws Exception {
+
+        final GaugeEvaluator gaugeEvaluator = new GaugeEvaluator(metricRegistry, 0, 0, 1, 0, TimeUnit.SECONDS);
+        final GraphiteMetricsReporter prioritized = new GraphiteMetricsReporter(metricRegistry, fanOut, gaugeEvaluator,
+                clock, "prioritized", 1, new MetricPriorities(Pattern.compile("important"), Pattern.compile("bulk.*")));
+        metricRegistry.counter("bulk.counter");
+        metricRegistry.counter("important");
+        metricRegistry.counter("other");
+
+        final List<Priority> published = new ArrayList<>();
+        final List<String> names = new ArrayList<>();
+        doAnswer(new Answer<Integer>() {
+            @Override
+            public Integer answer(final InvocationOnMock invocation) {
+                final MetricSnapshot snapshot = (MetricSnapshot) invocation.getArguments()[0];
+                published.add(snapshot.getPriority());
+                for (int i = 0; i < snapshot.size(); i++) {
+                    if (snapshot.getName(i).startsWith("prioritized") && !snapshot.getName(i).contains("hivemq")) {
+                        names.add(snapshot.getName(i));
+                    }
+                }
+                return 0;
+            }
+        }).when(fanOut).publish(any(MetricSnapshot.class));
+
+        prioritized.report();
+
+        assertEquals(Arrays.asList(Priority.HIGH, Priority.NORMAL, Priority.LOW), published);
+        assertEquals(Arrays.asList("prioritized.important.count", "prioritized.other.count",
+                "prioritized.bulk.counter.count"), names);
+    }
+
+    @Test
+    public void test_sampled_gauge_is_reported_as_rollup() throws Exception {
+
+        final GaugeEvaluator gaugeEvaluator = new GaugeEvaluator(metricRegistry, 0, 0, 1, 0, TimeUnit.SECONDS);
+        final GaugeSampler sampler = new GaugeSampler(Pattern.compile("inflight"), 1, 60, TimeUnit.SECONDS);
+        final GraphiteMetricsReporter sampling = new GraphiteMetricsReporter(metricRegistry, fanOut, gaugeEvaluator,
+                clock, "sampled", 1, MetricPriorities.NONE, sampler, CounterRates.NONE);
+        final int[] values = {3, 42, 6};
+        final int[] next = {0};
+        metricRegistry.register("inflight", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return values[next[0]++];
+            }
+        });
+
+        sampler.sample();
+        sampler.sample();
+        sampler.sample();
+        sampling.report();
+
+        final ArgumentCaptor<MetricSnapshot> captor = ArgumentCaptor.forClass(MetricSnapshot.class);
+        verify(fanOut).publish(captor.capture());
+
+        final MetricSnapshot snapshot = captor.getValue();
+        assertFalse(contains(snapshot, "sampled.inflight"));
+        assertEquals(3, snapshot.getValue(indexOf(snapshot, "sampled.inflight.min")), 0.0);
+        assertEquals(42, snapshot.getValue(indexOf(snapshot, "sampled.inflight.max")), 0.0);
+        assertEquals(17, snapshot.getValue(indexOf(snapshot, "sampled.inflight.mean")), 0.0);
+        assertEquals(6, snapshot.getValue(indexOf(snapshot, "sampled.inflight.last")), 0.0);
+        assertTrue(snapshot.isIntegral(indexOf(snapshot, "sampled.inflight.max")));
+
+        //without new samples the next interval has no rollup
+        sampling.report();
+        assertFalse(contains(snapshot, "sampled.inflight.max"));
+    }
+
+    @Test
+    public void test_rate_counter_is_reported_per_second() throws Exception {
+
+        final GaugeEvaluator gaugeEvaluator = new GaugeEvaluator(metricRegistry, 0, 0, 1, 0, TimeUnit.SECONDS);
+        final GraphiteMetricsReporter rates = new GraphiteMetricsReporter(metricRegistry, fanOut, gaugeEvaluator,
+                clock, "rates", 1, MetricPriorities.NONE, GaugeSampler.NONE,
+                new CounterRates(Pattern.compile("incoming"), false, false));
+        final Counter incoming = metricRegistry.counter("incoming");
+        final Counter other = metricRegistry.counter("other");
+        incoming.inc(100);
+        other.inc(100);
+
+        final ArgumentCaptor<MetricSnapshot> captor = ArgumentCaptor.forClass(MetricSnapshot.class);
+        rates.report();
+        verify(fanOut).publish(captor.capture());
+        final MetricSnapshot snapshot = captor.getValue();
+        //the first interval has no rate yet
+        assertFalse(contains(snapshot, "rates.incoming.rate"));
+        assertFalse(contains(snapshot, "rates.incoming.count"));
+        assertEquals(100, snapshot.getValue(indexOf(snapshot, "rates.other.count")), 0.0);
+
+        when(clock.getTime()).thenReturn(20_000L);
+        incoming.inc(50);
+        rates.report();
+        assertEquals(5.0, snapshot.getValue(indexOf(snapshot, "rates.incoming.rate")), 0.0);
+
+        //counters may be decremented, the change is negative
+        when(clock.getTime()).thenReturn(30_000L);
+        incoming.dec(140);
+        rates.report();
+        assertEquals(-14.0, snapshot.getValue(indexOf(snapshot, "rates.incoming.rate")), 0.0);
+    }
+
+    @Test
+    public void test_decrease_of_monotonic_rate_counter_is_a_reset() throws Exception {
+
+        final GaugeEvaluator gaugeEvaluator = new GaugeEvaluator(metricRegistry, 0, 0, 1, 0, TimeUnit.SECONDS);
+        final GraphiteMetricsReporter rates = new GraphiteMetricsReporter(metricRegistry, fanOut, gaugeEvaluator,
+                clock, "rates", 1, MetricPriorities.NONE, GaugeSampler.NONE,
+                new CounterRates(Pattern.compile("incoming"), false, true));
+        final Counter incoming = metricRegistry.counter("incoming");
+        incoming.inc(150);
+
+        final ArgumentCaptor<MetricSnapshot> captor = ArgumentCaptor.forClass(MetricSnapshot.class);
+        rates.report();
+        verify(fanOut).publish(captor.capture());
+        final MetricSnapshot snapshot = captor.getValue();
+
+        //reset, the rate is based on the count since the reset
+        when(clock.getTime()).thenReturn(20_000L);
+        incoming.dec(140);
+        rates.report();
+        assertEquals(1.0, snapshot.getValue(indexOf(snapshot, "rates.incoming.rate")), 0.0);
+    }
+
+    @Test
+    public void test_delta_counter_is_reported_per_interval() throws Exception {
+
+        final GaugeEvaluator gaugeEvaluator = new GaugeEvaluator(metricRegistry, 0, 0, 1, 0, TimeUnit.SECONDS);
+        final GraphiteMetricsReporter deltas = new GraphiteMetricsReporter(metricRegistry, fanOut, gaugeEvaluator,
+                clock, "deltas", 1, MetricPriorities.NONE, GaugeSampler.NONE,
+                new CounterRates(Pattern.compile("incoming"), true, false));
+        final Counter incoming = metricRegistry.counter("incoming");
+
+        final ArgumentCaptor<MetricSnapshot> captor = ArgumentCaptor.forClass(MetricSnapshot.class);
+        deltas.report();
+        verify(fanOut).publish(captor.capture());
+        final MetricSnapshot snapshot = captor.getValue();
+
+        incoming.inc(7);
+        deltas.report();
+        final int delta = indexOf(snapshot, "deltas.incoming.delta");
+        assertEquals(7, snapshot.getValue(delta), 0.0);
+        assertTrue(snapshot.isIntegral(delta));
+    }
+
+    @Test
+    public void test_stop_closes_fan_out() throws Exception {
+
+        reporter.stop();
+
+        verify(fanOut, times(1)).close();
+    }
+
+    @Test
+    public void test_stop_stops_listening_to_registry() throws Exception {
+
+        reporter.stop();
+        metricRegistry.counter("counter");
+
+        reporter.report();
+
+        final ArgumentCaptor<MetricSnapshot> captor = ArgumentCaptor.forClass(MetricSnapshot.class);
+        verify(fanOut).publish(captor.capture());
+        assertFalse(contains(captor.getValue(), "prefix.counter.count"));
+    }
+
+    static boolean contains(final MetricSnapshot snapshot, final String name) {
+        for (int i = 0; i < snapshot.size(); i++) {
+            if (snapshot.getName(i).equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static int indexOf(final MetricSnapshot snapshot, final String name) {
+        for (int i = 0; i < snapshot.size(); i++) {
+            if (snapshot.getName(i).equals(name)) {
+                return i;
+            }
+        }
+        throw new AssertionError(name + " is not in the snapshot");
+    }
+
+}
@@ -0,0 +1,109 @@
+package com.hivemq.plugins.metrics.graphite.sender;
+
+import com.codahale.metrics.Clock;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+import static org.junit.Assert.assertEquals;
+
+public class AddressResolverTest {
+
+    private final Deque<InetAddress> lookups = new ArrayDeque<>();
+
+    private long time;
+    private int lookupCount;
+    private AddressResolver resolver;
+
+    @Before
+    public void before() {
+        final Clock clock = new Clock() {
+            @Override
+            public long getTick() {
+                return time * 1_000_000;
+            }
+
+            @Override
+            public long getTime() {
+                return time;
+            }
+        };
+        resolver = new AddressResolver(1000, clock, MoreExecutors.newDirectExecutorService()) {
+            @Override
+            InetAddress lookup(final String host) throws UnknownHostException {
+                lookupCount++;
+                final InetAddress address = lookups.poll();
+                if (address == null) {
+                    throw new UnknownHostException(host);
+                }
+                return address;
+            }
+        };
+    }
+
+    @Test
+    public void test_address_is_cached_within_ttl() throws Exception {
+
+        lookups.addAll(Arrays.asList(address(1), address(2)));
+
+        assertEquals(address(1), resolver.resolve("carbon", 2003).getAddress());
+        time = 999;
+        assertEquals(address(1), resolver.resolve("carbon", 2004).getAddress());
+        assertEquals(2004, resolver.resolve("carbon", 2004).getPort());
+        assertEquals(1, lookupCount);
+    }
+
+    @Test
+    public void test_expired_address_is_refreshed() throws Exception {
+
+        lookups.addAll(Arrays.asList(address(1), address(2)));
+
+        resolver.resolve("carbon", 2003);
+        time = 1000;
+
+        //the refresh does not hold up the caller, the stale address is returned
+        assertEquals(address(1), resolver.resolve("carbon", 2003).getAddress());
+        assertEquals(address(2), resolver.resolve("carbon", 2003).getAddress());
+        assertEquals(2, lookupCount);
+    }
+
+    @Test
+    public void test_failed_refresh_keeps_last_address() throws Exception {
+
+        lookups.add(address(1));
+
+        resolver.resolve("carbon", 2003);
+        time = 1000;
+
+        assertEquals(address(1), resolver.resolve("carbon", 2003).getAddress());
+        assertEquals(address(1), resolver.resolve("carbon", 2003).getAddress());
+        assertEquals(3, lookupCount);
+    }
+
+    @Test
+    public void test_prefetch_resolves_in_background() throws Exception {
+
+        lookups.add(address(1));
+
+        resolver.prefetch("carbon");
+
+        assertEquals(address(1), resolver.resolve("carbon", 2003).getAddress());
+        assertEquals(1, lookupCount);
+    }
+
+    @Test(expected = UnknownHostException.class)
+    public void test_unknown_host() throws Exception {
+
+        resolver.resolve("carbon", 2003);
+    }
+
+    private static InetAddress address(final int last) throws UnknownHostException {
+        return InetAddress.getByAddress(new byte[]{10, 0, 0, (byte) last});
+    }
+}
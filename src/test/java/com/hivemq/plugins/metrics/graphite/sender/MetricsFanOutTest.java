@@ -0,0 +1,205 @@
+package com.hivemq.plugins.metrics.graphite.sender;
+
+import com.codahale.metrics.MetricRegistry;
+import com.hivemq.plugins.metrics.graphite.reporter.MetricSnapshot;
+import com.hivemq.plugins.metrics.graphite.reporter.Priority;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class MetricsFanOutTest {
+
+    @Mock
+    Transport slowTransport;
+
+    @Mock
+    Transport fastTransport;
+
+    private MetricRegistry metricRegistry;
+
+    private MetricSnapshot snapshot;
+
+    @Before
+    public void before() {
+        MockitoAnnotations.initMocks(this);
+
+        metricRegistry = new MetricRegistry();
+
+        snapshot = new MetricSnapshot();
+        snapshot.reset(1);
+        snapshot.add("metric", 1L);
+    }
+
+    @Test
+    public void test_same_encoder_encodes_once() throws Exception {
+
+        final SnapshotEncoder encoder = mock(SnapshotEncoder.class);
+        final MetricSink first = new MetricSink("first", encoder, fastTransport, 1, metricRegistry);
+        final MetricSink second = new MetricSink("second", encoder, slowTransport, 1, metricRegistry);
+
+        final MetricsFanOut fanOut = new MetricsFanOut(Arrays.asList(first, second));
+        fanOut.publish(snapshot);
+
+        verify(encoder, times(1)).encode(eq(snapshot), any(EncodeBuffer.class));
+        verify(fastTransport, timeout(5000)).flush();
+        verify(slowTransport, timeout(5000)).flush();
+
+        fanOut.close();
+    }
+
+    @Test
+    public void test_failing_sink_does_not_affect_other_sinks() throws Exception {
+
+        doThrow(new IOException("unreachable")).when(slowTransport).connect();
+
+        final MetricSink failing = new MetricSink("failing", new PlaintextEncoder(new PlainSeriesNames()), slowTransport, 1, metricRegistry);
+        final MetricSink working = new MetricSink("working", new StatsdEncoder(), fastTransport, 1, metricRegistry);
+
+        final MetricsFanOut fanOut = new MetricsFanOut(Arrays.asList(failing, working));
+        fanOut.publish(snapshot);
+
+        verify(fastTransport, timeout(5000)).write(any(byte[].class), eq(0), anyInt());
+        verify(slowTransport, timeout(5000)).close();
+        assertEquals(1, metricRegistry.counter("com.hivemq.plugins.graphite.sink.failing.failures").getCount());
+        assertEquals(0, metricRegistry.counter("com.hivemq.plugins.graphite.sink.working.failures").getCount());
+
+        fanOut.close();
+
+        assertFalse(metricRegistry.getNames().contains("com.hivemq.plugins.graphite.sink.working.latency"));
+    }
+
+    @Test
+    public void test_high_priority_is_sent_first() throws Exception {
+
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(final InvocationOnMock invocation) throws Throwable {
+                writing.countDown();
+                release.await();
+                return null;
+            }
+        }).when(slowTransport).write(eq(new byte[]{0}), anyInt(), anyInt());
+
+        final MetricSink sink = new MetricSink("lanes", mock(SnapshotEncoder.class), slowTransport, 4, metricRegistry);
+        sink.offer(new MetricSnapshot(Priority.NORMAL), new byte[]{0});
+        writing.await();
+
+        sink.offer(new MetricSnapshot(Priority.LOW), new byte[]{3});
+        sink.offer(new MetricSnapshot(Priority.NORMAL), new byte[]{2});
+        sink.offer(new MetricSnapshot(Priority.HIGH), new byte[]{1});
+        release.countDown();
+
+        verify(slowTransport, timeout(5000)).write(eq(new byte[]{3}), anyInt(), anyInt());
+        final InOrder inOrder = inOrder(slowTransport);
+        inOrder.verify(slowTransport).write(eq(new byte[]{0}), anyInt(), anyInt());
+        inOrder.verify(slowTransport).write(eq(new byte[]{1}), anyInt(), anyInt());
+        inOrder.verify(slowTransport).write(eq(new byte[]{2}), anyInt(), anyInt());
+        inOrder.verify(slowTransport).write(eq(new byte[]{3}), anyInt(), anyInt());
+
+        sink.close();
+    }
+
+    @Test
+    public void test_low_priority_is_shed_first_when_lane_is_full() throws Exception {
+
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(final InvocationOnMock invocation) throws Throwable {
+                writing.countDown();
+                release.await();
+                return null;
+            }
+        }).when(slowTransport).write(eq(new byte[]{0}), anyInt(), anyInt());
+
+        final MetricSink sink = new MetricSink("shed", mock(SnapshotEncoder.class), slowTransport, 1, metricRegistry);
+        sink.offer(new MetricSnapshot(Priority.HIGH), new byte[]{0});
+        writing.await();
+
+        sink.offer(new MetricSnapshot(Priority.LOW), new byte[]{3});
+        sink.offer(new MetricSnapshot(Priority.HIGH), new byte[]{1});
+        sink.offer(new MetricSnapshot(Priority.HIGH), new byte[]{2});
+
+        assertEquals(2, metricRegistry.counter("com.hivemq.plugins.graphite.sink.shed.dropped").getCount());
+        release.countDown();
+
+        verify(slowTransport, timeout(5000)).write(eq(new byte[]{2}), anyInt(), anyInt());
+        verify(slowTransport, never()).write(eq(new byte[]{3}), anyInt(), anyInt());
+        verify(slowTransport, never()).write(eq(new byte[]{1}), anyInt(), anyInt());
+
+        sink.close();
+    }
+
+    @Test
+    public void test_latest_payload_keeps_all_partitions() throws Exception {
+
+        final LatestPayload latest = new LatestPayload(new StatsdEncoder());
+        final MetricsFanOut fanOut = new MetricsFanOut(Arrays.asList(latest));
+
+        snapshot.reset(1, 0, 2);
+        snapshot.add("first", 1L);
+        fanOut.publish(snapshot);
+        assertEquals("first:1|g\n", new String(latest.get(), "UTF-8"));
+
+        snapshot.reset(2, 1, 2);
+        snapshot.add("second", 2L);
+        fanOut.publish(snapshot);
+        assertEquals("first:1|g\nsecond:2|g\n", new String(latest.get(), "UTF-8"));
+
+        snapshot.reset(3, 0, 2);
+        snapshot.add("first", 3L);
+        fanOut.publish(snapshot);
+        assertEquals("first:3|g\nsecond:2|g\n", new String(latest.get(), "UTF-8"));
+        assertSame(latest.get(), latest.get());
+    }
+
+    @Test
+    public void test_empty_snapshot_replaces_latest_payload_of_partition() throws Exception {
+
+        final LatestPayload latest = new LatestPayload(new StatsdEncoder());
+        final MetricSink sink = new MetricSink("sink", new StatsdEncoder(), fastTransport, 1, metricRegistry);
+        final MetricsFanOut fanOut = new MetricsFanOut(Arrays.asList(latest, sink));
+
+        snapshot.reset(1, 0, 2);
+        snapshot.add("first", 1L);
+        fanOut.publish(snapshot);
+        snapshot.reset(1, 1, 2);
+        snapshot.add("second", 2L);
+        fanOut.publish(snapshot);
+        assertEquals("first:1|g\nsecond:2|g\n", new String(latest.get(), "UTF-8"));
+
+        snapshot.reset(2, 1, 2);
+        assertEquals(0, fanOut.publish(snapshot));
+        assertEquals("first:1|g\n", new String(latest.get(), "UTF-8"));
+
+        verify(fastTransport, timeout(5000).atLeastOnce()).write(any(byte[].class), eq(0), anyInt());
+        fanOut.close();
+        verify(fastTransport, never()).write(any(byte[].class), eq(0), eq(0));
+    }
+}
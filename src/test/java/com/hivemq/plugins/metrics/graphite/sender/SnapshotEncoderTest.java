@@ -0,0 +1,143 @@
+package com.hivemq.plugins.metrics.graphite.sender;
+
+import com.hivemq.plugins.metrics.graphite.reporter.MetricSnapshot;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class SnapshotEncoderTest {
+
+    private MetricSnapshot snapshot;
+
+    private EncodeBuffer buffer;
+
+    @Before
+    public void before() {
+        snapshot = new MetricSnapshot();
+        snapshot.reset(1500000000L);
+        snapshot.add("a.count", 42L);
+        snapshot.add("b mean", 0.125);
+
+        buffer = new EncodeBuffer(16);
+    }
+
+    @Test
+    public void test_plaintext() throws Exception {
+
+        new PlaintextEncoder(new PlainSeriesNames()).encode(snapshot, buffer);
+
+        assertEquals("a.count 42 1500000000\nb-mean 0.13 1500000000\n", string(buffer));
+    }
+
+    @Test
+    public void test_statsd() throws Exception {
+
+        new StatsdEncoder().encode(snapshot, buffer);
+
+        assertEquals("a.count:42|g\nb-mean:0.13|g\n", string(buffer));
+    }
+
+    @Test
+    public void test_statsd_negative_gauge_is_not_sent_as_change() throws Exception {
+        snapshot.reset(1500000000L);
+        snapshot.add("a.delta", -5L);
+
+        new StatsdEncoder().encode(snapshot, buffer);
+
+        assertEquals("a.delta:0|g\na.delta:-5|g\n", string(buffer));
+    }
+
+    @Test
+    public void test_influx() throws Exception {
+
+        new InfluxLineEncoder().encode(snapshot, buffer);
+
+        assertEquals("a.count value=42 1500000000000000000\nb\\ mean value=0.13 1500000000000000000\n", string(buffer));
+    }
+
+    @Test
+    public void test_pickle_batches() throws Exception {
+
+        new PickleEncoder(1, new PlainSeriesNames()).encode(snapshot, buffer);
+
+        final ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+        final int firstLength = bytes.getInt();
+        final String first = new String(Arrays.copyOfRange(bytes.array(), 4, 4 + firstLength), "UTF-8");
+        assertEquals("(l(S'a.count'\n(L1500000000L\nS'42'\ntta.", first);
+
+        bytes.position(4 + firstLength);
+        final int secondLength = bytes.getInt();
+        assertEquals(bytes.remaining(), secondLength);
+    }
+
+    @Test
+    public void test_protobuf() throws Exception {
+
+        new ProtobufEncoder(10, new PlainSeriesNames()).encode(snapshot, buffer);
+
+        final ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+        assertEquals(bytes.remaining() - 4, bytes.getInt());
+        bytes.order(ByteOrder.LITTLE_ENDIAN);
+
+        assertMetric(bytes, "a.count", 42);
+        assertMetric(bytes, "b-mean", 0.125);
+        assertEquals(0, bytes.remaining());
+    }
+
+    private static void assertMetric(final ByteBuffer bytes, final String name, final double value) throws Exception {
+        //Payload.metrics
+        assertEquals(0x0A, bytes.get());
+        final long metricLength = readVarint(bytes);
+        final int metricEnd = bytes.position() + (int) metricLength;
+
+        //Metric.metric
+        assertEquals(0x0A, bytes.get());
+        final byte[] nameBytes = new byte[(int) readVarint(bytes)];
+        bytes.get(nameBytes);
+        assertEquals(name, new String(nameBytes, "UTF-8"));
+
+        //Metric.points
+        assertEquals(0x12, bytes.get());
+        final long pointLength = readVarint(bytes);
+        final int pointStart = bytes.position();
+        assertEquals(0x08, bytes.get());
+        assertEquals(1500000000L, readVarint(bytes));
+        assertEquals(0x11, bytes.get());
+        assertEquals(value, bytes.getDouble(), 0.0);
+
+        assertEquals(pointLength, bytes.position() - pointStart);
+        assertEquals(metricEnd, bytes.position());
+    }
+
+    private static long readVarint(final ByteBuffer bytes) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = bytes.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    @Test
+    public void test_fixed2_matches_string_format() throws Exception {
+
+        final double[] values = {0, -0.0, 1.005, 2.5, -3.14159, 99.999, 123456.789, Double.NaN, 1e20};
+        for (double value : values) {
+            buffer.reset();
+            buffer.writeFixed2(value);
+            assertEquals(String.format(java.util.Locale.US, "%2.2f", value), string(buffer));
+        }
+    }
+
+    private static String string(final EncodeBuffer buffer) throws Exception {
+        return new String(buffer.toByteArray(), "UTF-8");
+    }
+}
@@ -0,0 +1,48 @@
+package com.hivemq.plugins.metrics.graphite.sender;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class TaggedSeriesNamesTest {
+
+    @Test
+    public void test_node_and_cluster_tags() throws Exception {
+
+        final TaggedSeriesNames names = new TaggedSeriesNames("node1", "cluster-a",
+                Collections.<TaggedSeriesNames.TagRule>emptyList());
+
+        assertEquals("com.hivemq.networking.connections.current;cluster=cluster-a;node=node1",
+                names.build("com.hivemq.networking.connections.current"));
+    }
+
+    @Test
+    public void test_rules_extract_tags_from_path() throws Exception {
+
+        final TaggedSeriesNames names = new TaggedSeriesNames("node1", null, Arrays.asList(
+                new TaggedSeriesNames.TagRule("sink", Pattern.compile("\\.sink\\.([^.]+)\\.")),
+                new TaggedSeriesNames.TagRule("direction", Pattern.compile("\\.(incoming|outgoing)\\."))));
+
+        assertEquals("com.hivemq.plugins.graphite.sink.failures;node=node1;sink=graphite",
+                names.build("com.hivemq.plugins.graphite.sink.graphite.failures"));
+        assertEquals("com.hivemq.messages.publish.count;direction=incoming;node=node1",
+                names.build("com.hivemq.messages.incoming.publish.count"));
+    }
+
+    @Test
+    public void test_encoded_name_is_cached() throws Exception {
+
+        final TaggedSeriesNames names = new TaggedSeriesNames("node 1", null,
+                Collections.<TaggedSeriesNames.TagRule>emptyList());
+
+        final byte[] first = names.encode("metric");
+
+        assertEquals("metric;node=node-1", new String(first, "UTF-8"));
+        assertSame(first, names.encode("metric"));
+    }
+}
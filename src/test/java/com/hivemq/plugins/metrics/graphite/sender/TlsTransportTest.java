@@ -0,0 +1,127 @@
+package com.hivemq.plugins.metrics.graphite.sender;
+
+import org.junit.After;
+import org.junit.Test;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TlsTransportTest {
+
+    private SSLServerSocket serverSocket;
+
+    private final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+
+    @After
+    public void after() throws Exception {
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+    }
+
+    @Test
+    public void test_payload_is_received() throws Exception {
+
+        startServer();
+        final TlsTransport transport = new TlsTransport("localhost", serverSocket.getLocalPort(), clientContext(), null);
+
+        transport.connect();
+        assertTrue(transport.isConnected());
+
+        final byte[] payload = new byte[100_000];
+        Arrays.fill(payload, (byte) 'a');
+        payload[payload.length - 1] = '\n';
+        transport.write("a.count 1 1500000000\n".getBytes("UTF-8"), 0, 21);
+        transport.write(payload, 0, payload.length);
+        transport.close();
+        assertFalse(transport.isConnected());
+
+        final String message = received.poll(10, TimeUnit.SECONDS);
+        assertEquals(21 + payload.length, message.length());
+        assertTrue(message.startsWith("a.count 1 1500000000\naaa"));
+    }
+
+    @Test
+    public void test_reconnect_resumes_session() throws Exception {
+
+        startServer("TLSv1.2");
+        final TlsTransport transport = new TlsTransport("localhost", serverSocket.getLocalPort(), clientContext(), null);
+
+        transport.connect();
+        final byte[] firstSession = transport.getSession().getId();
+        transport.write(new byte[]{'1', '\n'}, 0, 2);
+        transport.close();
+
+        transport.connect();
+        final byte[] secondSession = transport.getSession().getId();
+        transport.write(new byte[]{'2', '\n'}, 0, 2);
+        transport.close();
+
+        assertEquals("1\n", received.poll(10, TimeUnit.SECONDS));
+        assertEquals("2\n", received.poll(10, TimeUnit.SECONDS));
+        assertTrue(firstSession.length > 0);
+        assertArrayEquals(firstSession, secondSession);
+    }
+
+    @Test(expected = IOException.class)
+    public void test_untrusted_server_fails() throws Exception {
+
+        startServer();
+        final SSLContext defaultTrust = TlsContexts.create(null, null, null, null);
+        final TlsTransport transport = new TlsTransport("localhost", serverSocket.getLocalPort(), defaultTrust, null);
+
+        transport.connect();
+    }
+
+    private void startServer(final String... protocols) throws Exception {
+        final SSLContext serverContext = TlsContexts.create(resource("/tls/server.jks"), "changeit", null, null);
+        serverSocket = (SSLServerSocket) serverContext.getServerSocketFactory().createServerSocket(0);
+        if (protocols.length > 0) {
+            serverSocket.setEnabledProtocols(protocols);
+        }
+
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try (final SSLSocket socket = (SSLSocket) serverSocket.accept()) {
+                        final InputStream in = socket.getInputStream();
+                        final ByteArrayOutputStream message = new ByteArrayOutputStream();
+                        final byte[] buffer = new byte[8192];
+                        int read;
+                        while ((read = in.read(buffer)) >= 0) {
+                            message.write(buffer, 0, read);
+                        }
+                        received.add(message.toString("UTF-8"));
+                    } catch (IOException e) {
+                        //closed by the test or a failed handshake
+                    }
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private SSLContext clientContext() throws Exception {
+        return TlsContexts.create(null, null, resource("/tls/trust.jks"), "changeit");
+    }
+
+    private File resource(final String name) throws Exception {
+        return new File(getClass().getResource(name).toURI());
+    }
+}
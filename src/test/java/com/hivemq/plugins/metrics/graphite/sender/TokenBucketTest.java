@@ -0,0 +1,52 @@
+package com.hivemq.plugins.metrics.graphite.sender;
+
+import com.codahale.metrics.Timer;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TokenBucketTest {
+
+    private Timer throttled;
+
+    @Before
+    public void before() {
+        throttled = new Timer();
+    }
+
+    @Test
+    public void test_burst_is_not_throttled() throws Exception {
+
+        final TokenBucket bucket = new TokenBucket(10_000, 1000, throttled);
+
+        bucket.acquire(1000);
+
+        assertEquals(0, throttled.getCount());
+    }
+
+    @Test
+    public void test_writes_above_burst_are_paced() throws Exception {
+
+        final TokenBucket bucket = new TokenBucket(10_000, 1000, throttled);
+        final ByteArrayOutputStream target = new ByteArrayOutputStream();
+        final ShapedOutputStream stream = new ShapedOutputStream(target, bucket);
+
+        final byte[] payload = new byte[3000];
+        Arrays.fill(payload, (byte) 'a');
+
+        final long start = System.nanoTime();
+        stream.write(payload, 0, payload.length);
+        final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertArrayEquals(payload, target.toByteArray());
+        assertTrue("took " + elapsed + " ms", elapsed >= 150);
+        assertEquals(2, throttled.getCount());
+    }
+}
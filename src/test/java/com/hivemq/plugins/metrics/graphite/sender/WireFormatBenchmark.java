@@ -0,0 +1,146 @@
+package com.hivemq.plugins.metrics.graphite.sender;
+
+import com.hivemq.plugins.metrics.graphite.reporter.MetricSnapshot;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the batched wire formats by encoding a large snapshot and sending it to a local stand-in
+ * receiver, which reads the length prefixed frames the same way Carbon does.
+ * <p>
+ * Not run by the build, start it with
+ * <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.hivemq.plugins.metrics.graphite.sender.WireFormatBenchmark</code>
+ */
+public class WireFormatBenchmark {
+
+    private static final int DATAPOINTS = 20_000;
+    private static final int BATCH_SIZE = 500;
+    private static final int WARMUP_TICKS = 200;
+    private static final int MEASURED_TICKS = 500;
+
+    public static void main(final String[] args) throws Exception {
+        final MetricSnapshot snapshot = new MetricSnapshot();
+        snapshot.reset(System.currentTimeMillis() / 1000);
+        for (int i = 0; i < DATAPOINTS; i++) {
+            if (i % 2 == 0) {
+                snapshot.add("com.hivemq.benchmark.metric" + i + ".count", i * 31L);
+            } else {
+                snapshot.add("com.hivemq.benchmark.metric" + i + ".p99", i / 7.0);
+            }
+        }
+
+        for (WireFormat format : new WireFormat[]{WireFormat.PICKLE, WireFormat.PROTOBUF}) {
+            run(format, snapshot);
+        }
+    }
+
+    private static void run(final WireFormat format, final MetricSnapshot snapshot) throws Exception {
+        final SnapshotEncoder encoder = format.newEncoder(BATCH_SIZE, new PlainSeriesNames());
+        final EncodeBuffer buffer = new EncodeBuffer(64 * 1024);
+
+        try (final StandInReceiver receiver = new StandInReceiver()) {
+            final TcpTransport transport = new TcpTransport("127.0.0.1", receiver.getPort());
+            transport.connect();
+
+            for (int i = 0; i < WARMUP_TICKS; i++) {
+                tick(encoder, snapshot, buffer, transport);
+            }
+            receiver.awaitBytes(buffer.position() * (long) WARMUP_TICKS);
+
+            long encodeNanos = 0;
+            long sentBytes = 0;
+            final long start = System.nanoTime();
+            for (int i = 0; i < MEASURED_TICKS; i++) {
+                final long encodeStart = System.nanoTime();
+                buffer.reset();
+                encoder.encode(snapshot, buffer);
+                encodeNanos += System.nanoTime() - encodeStart;
+
+                transport.write(buffer.array(), 0, buffer.position());
+                transport.flush();
+                sentBytes += buffer.position();
+            }
+            receiver.awaitBytes(buffer.position() * (long) WARMUP_TICKS + sentBytes);
+            final long elapsedNanos = System.nanoTime() - start;
+            transport.close();
+
+            final long datapoints = (long) DATAPOINTS * MEASURED_TICKS;
+            System.out.printf("%-9s %6.1f bytes/datapoint %7.1f ns/datapoint encode %10.0f datapoints/s end-to-end%n",
+                    format.getName(),
+                    (double) sentBytes / datapoints,
+                    (double) encodeNanos / datapoints,
+                    datapoints / (elapsedNanos / 1e9));
+        }
+    }
+
+    private static void tick(final SnapshotEncoder encoder, final MetricSnapshot snapshot,
+                             final EncodeBuffer buffer, final Transport transport) throws IOException {
+        buffer.reset();
+        encoder.encode(snapshot, buffer);
+        transport.write(buffer.array(), 0, buffer.position());
+        transport.flush();
+    }
+
+    /**
+     * Reads frames with a 4 byte length prefix, as the pickle and protobuf receivers of Carbon do.
+     */
+    private static class StandInReceiver implements AutoCloseable {
+
+        private final ServerSocket serverSocket;
+        private final AtomicLong receivedBytes = new AtomicLong();
+        private final Thread thread;
+
+        StandInReceiver() throws IOException {
+            serverSocket = new ServerSocket(0);
+            thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    receive();
+                }
+            }, "stand-in-receiver");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        private void receive() {
+            try (final Socket socket = serverSocket.accept();
+                 final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+                byte[] frame = new byte[0];
+                while (true) {
+                    final int length = in.readInt();
+                    if (frame.length < length) {
+                        frame = new byte[length];
+                    }
+                    in.readFully(frame, 0, length);
+                    receivedBytes.addAndGet(4 + length);
+                }
+            } catch (EOFException e) {
+                //sender closed the connection
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        void awaitBytes(final long bytes) throws InterruptedException {
+            while (receivedBytes.get() < bytes) {
+                Thread.sleep(1);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.hivemq.plugins.metrics.graphite.utils;
+
+import com.hivemq.plugins.metrics.graphite.sender.WireFormat;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+
+public class GraphiteSettingsTest {
+
+    private Properties properties;
+
+    @Before
+    public void before() {
+        properties = new Properties();
+        properties.setProperty(ReloadingPropertiesReader.HOST_KEY, "localhost");
+        properties.setProperty(ReloadingPropertiesReader.PORT_KEY, "2003");
+    }
+
+    @Test
+    public void test_valid_settings() throws Exception {
+
+        properties.setProperty(ReloadingPropertiesReader.SINKS_KEY, "statsd");
+        properties.setProperty("sink.statsd.host", "127.0.0.1");
+        properties.setProperty("sink.statsd.port", "8125");
+        properties.setProperty("sink.statsd.format", "statsd");
+
+        final GraphiteSettings settings = new GraphiteSettings(properties, new File("."));
+
+        assertEquals("localhost", settings.getHost());
+        assertEquals(2003, settings.getPort());
+        assertEquals(60, settings.getReportingInterval());
+        assertEquals(Collections.singletonList("statsd"), settings.getSinks());
+        assertEquals(8125, settings.getSinkPort("statsd"));
+        assertEquals(WireFormat.STATSD, settings.getSinkFormat("statsd"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_missing_host_is_rejected() throws Exception {
+
+        properties.remove(ReloadingPropertiesReader.HOST_KEY);
+
+        new GraphiteSettings(properties, new File("."));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_invalid_sink_is_rejected() throws Exception {
+
+        properties.setProperty(ReloadingPropertiesReader.SINKS_KEY, "influx");
+        properties.setProperty("sink.influx.host", "127.0.0.1");
+        properties.setProperty("sink.influx.port", "noNumber");
+
+        new GraphiteSettings(properties, new File("."));
+    }
+}
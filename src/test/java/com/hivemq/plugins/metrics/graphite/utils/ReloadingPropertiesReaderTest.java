@@ -32,6 +32,7 @@ import java.io.FileOutputStream;
 import java.util.Properties;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 import static org.mockito.Matchers.any;
@@ -129,6 +130,7 @@ public class ReloadingPropertiesReaderTest {
         final Properties properties = new Properties();
         properties.setProperty(ReloadingPropertiesReader.BATCH_MODE_KEY, "false");
         properties.setProperty(ReloadingPropertiesReader.PORT_KEY, "1234");
+        properties.setProperty(ReloadingPropertiesReader.HOST_KEY, "localhost");
         properties.store(new FileOutputStream(tempFile), "");
 
         reader.reload();
@@ -142,6 +144,7 @@ public class ReloadingPropertiesReaderTest {
         final Properties properties = new Properties();
         properties.setProperty(ReloadingPropertiesReader.BATCH_MODE_KEY, "false");
         properties.setProperty(ReloadingPropertiesReader.PORT_KEY, "1234");
+        properties.setProperty(ReloadingPropertiesReader.HOST_KEY, "localhost");
         properties.store(new FileOutputStream(tempFile), "");
 
 
@@ -190,6 +193,35 @@ public class ReloadingPropertiesReaderTest {
         assertEquals("otherValue2", reader.getProperties().get("key2"));
     }
 
+    @Test
+    public void test_callback_of_several_changed_keys_is_called_once() throws Exception {
+
+        reader.postConstruct();
+
+        final AtomicInteger calls = new AtomicInteger();
+        final ValueChangedCallback<String> callback = new ValueChangedCallback<String>() {
+            @Override
+            public void valueChanged(final String newValue) {
+                calls.incrementAndGet();
+            }
+        };
+        reader.addCallback(ReloadingPropertiesReader.HOST_KEY, callback);
+        reader.addCallback(ReloadingPropertiesReader.PORT_KEY, callback);
+        reader.addCallback("key*", callback);
+
+        final Properties properties = new Properties();
+        properties.setProperty("key2", "otherValue2");
+        properties.setProperty(ReloadingPropertiesReader.PORT_KEY, "1234");
+        properties.setProperty(ReloadingPropertiesReader.HOST_KEY, "localhost");
+        properties.store(new FileOutputStream(tempFile), "");
+
+        reader.reload();
+
+        assertEquals(1, calls.get());
+        assertEquals("localhost", reader.getProperties().get(ReloadingPropertiesReader.HOST_KEY));
+        assertEquals("1234", reader.getProperties().get(ReloadingPropertiesReader.PORT_KEY));
+    }
+
     @Test
     public void test_getProperties() throws Exception {
 
@@ -273,6 +305,39 @@ public class ReloadingPropertiesReaderTest {
         assertFalse(reader.getProperties().containsKey(ReloadingPropertiesReader.REPORTING_INTERVAL_KEY));
     }
 
+    @Test
+    public void test_fail_reload_host_missing() throws Exception {
+
+        reader.postConstruct();
+
+        final Properties properties = new Properties();
+        properties.setProperty("key1", "newValue");
+        properties.setProperty(ReloadingPropertiesReader.PORT_KEY, "1");
+        properties.store(new FileOutputStream(tempFile), "");
+
+        reader.reload();
+
+        assertEquals("value1", reader.getProperties().get("key1"));
+    }
+
+    @Test
+    public void test_fail_reload_reportingInterval_not_positive() throws Exception {
+
+        reader.postConstruct();
+
+        final Properties properties = new Properties();
+        properties.setProperty("key1", "newValue");
+        properties.setProperty(ReloadingPropertiesReader.PORT_KEY, "1");
+        properties.setProperty(ReloadingPropertiesReader.HOST_KEY, "localhost");
+        properties.setProperty(ReloadingPropertiesReader.REPORTING_INTERVAL_KEY, "0");
+        properties.store(new FileOutputStream(tempFile), "");
+
+        reader.reload();
+
+        assertEquals("value1", reader.getProperties().get("key1"));
+        assertFalse(reader.getProperties().containsKey(ReloadingPropertiesReader.REPORTING_INTERVAL_KEY));
+    }
+
     @Test
     public void test_fail_reload_batchMode_wrong() throws  Exception{
 